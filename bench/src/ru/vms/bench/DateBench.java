@@ -0,0 +1,57 @@
+package ru.vms.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.vms.Date;
+
+/**
+ * Date.fromString and compareTo over a rotating set of command-stream dates.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateBench {
+    private static final int COUNT = 1024;
+
+    private String[] texts;
+    private Date[] dates;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        texts = new String[COUNT];
+        dates = new Date[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            dates[i] = Date.ofEpochDay(Fixtures.FIRST_DAY + 9000 + (i * 37) % 400);
+            texts[i] = dates[i].toString();
+        }
+    }
+
+    @Benchmark
+    public Date fromString() {
+        next = (next + 1) & (COUNT - 1);
+        return Date.fromString(texts[next]);
+    }
+
+    @Benchmark
+    public int compareTo() {
+        next = (next + 1) & (COUNT - 1);
+        return dates[next].compareTo(dates[(next + 1) & (COUNT - 1)]);
+    }
+}
@@ -0,0 +1,61 @@
+package ru.vms.bench;
+
+import ru.vms.Booking;
+import ru.vms.Date;
+import ru.vms.Employee;
+import ru.vms.Fleet;
+import ru.vms.Make;
+import ru.vms.Reservation;
+import ru.vms.Vehicle;
+
+/**
+ * Builds fleets and reservation books of a given size for the benchmarks.
+ * Booking i takes vehicle i % fleetSize and employee i % 8 for the single day
+ * FIRST_DAY + i, so no two bookings of a vehicle or an employee overlap.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+final class Fixtures {
+    static final int FIRST_DAY = Date.valueOf(1, 1, 2000).toEpochDay();
+
+    private static final Make[] MAKES = Make.values();
+    private static final Employee[] EMPLOYEES = Employee.values();
+
+    private Fixtures() {
+    }
+
+    static String plate(int i) {
+        return String.format("%06dX", i);
+    }
+
+    static Vehicle[] vehicles(int n) {
+        Vehicle[] v = new Vehicle[n];
+        for (int i = 0; i < n; i++) {
+            v[i] = new Vehicle(plate(i), Date.ofEpochDay(FIRST_DAY - 1 - i % 3650), MAKES[i % MAKES.length], 1000 + i);
+        }
+        return v;
+    }
+
+    static Fleet fleet(Vehicle[] vehicles) {
+        Fleet f = new Fleet();
+        for (Vehicle v : vehicles) f.add(v);
+        return f;
+    }
+
+    static Booking booking(Vehicle[] vehicles, int i) {
+        Date day = Date.ofEpochDay(FIRST_DAY + i);
+        return new Booking(day, day, EMPLOYEES[i % EMPLOYEES.length], vehicles[i % vehicles.length]);
+    }
+
+    static Booking[] bookings(Vehicle[] vehicles, int n) {
+        Booking[] b = new Booking[n];
+        for (int i = 0; i < n; i++) b[i] = booking(vehicles, i);
+        return b;
+    }
+
+    static Reservation reservation(Booking[] bookings) {
+        Reservation r = new Reservation();
+        for (Booking b : bookings) r.add(b);
+        return r;
+    }
+}
@@ -0,0 +1,78 @@
+package ru.vms.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.vms.Fleet;
+import ru.vms.Vehicle;
+
+/**
+ * Fleet.add, getByPlate and remove against fleets of 1k to 1M vehicles.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FleetBench {
+    @Param({"1000", "10000", "100000", "1000000"})
+    int fleetSize;
+
+    private Vehicle[] vehicles;
+    private Fleet fleet;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        vehicles = Fixtures.vehicles(fleetSize);
+        fleet = Fixtures.fleet(vehicles);
+    }
+
+    private Vehicle nextVehicle() {
+        Vehicle v = vehicles[next];
+        next = next + 1 == fleetSize ? 0 : next + 1;
+        return v;
+    }
+
+    @Benchmark
+    public Vehicle getByPlate() {
+        return fleet.getByPlate(nextVehicle().getPlate());
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return fleet.contains(nextVehicle());
+    }
+
+    /** Removes a vehicle and adds it back, so the fleet keeps its size. */
+    @Benchmark
+    public Fleet removeAndAdd() {
+        Vehicle v = nextVehicle();
+        fleet.remove(v);
+        fleet.add(v);
+        return fleet;
+    }
+
+    /** Builds a whole fleet, which measures add including growth. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public Fleet build() {
+        return Fixtures.fleet(vehicles);
+    }
+}
@@ -0,0 +1,79 @@
+package ru.vms.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.vms.Booking;
+import ru.vms.Fleet;
+import ru.vms.NullSink;
+import ru.vms.OutputSink;
+import ru.vms.Reservation;
+import ru.vms.Trip;
+import ru.vms.TripList;
+import ru.vms.Vehicle;
+
+/**
+ * The PF, PR, PD and PT reports, printed to a NullSink so only the report
+ * itself is measured.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportBench {
+    @Param({"1000", "10000", "100000", "1000000"})
+    int fleetSize;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    int reservationSize;
+
+    private final OutputSink out = new NullSink();
+    private Fleet fleet;
+    private Reservation reservation;
+    private TripList trips;
+
+    @Setup
+    public void setUp() {
+        Vehicle[] vehicles = Fixtures.vehicles(fleetSize);
+        Booking[] bookings = Fixtures.bookings(vehicles, reservationSize);
+        fleet = Fixtures.fleet(vehicles);
+        reservation = Fixtures.reservation(bookings);
+        trips = new TripList();
+        for (Booking b : bookings) trips.add(new Trip(b, 1000, 1100));
+    }
+
+    @Benchmark
+    public void printFleet() {
+        fleet.printByMake(out);
+    }
+
+    @Benchmark
+    public void printReservationsByVehicle() {
+        reservation.printByVehicle(out);
+    }
+
+    @Benchmark
+    public void printReservationsByDept() {
+        reservation.printByDept(out);
+    }
+
+    @Benchmark
+    public void printTrips() {
+        trips.print(out);
+    }
+}
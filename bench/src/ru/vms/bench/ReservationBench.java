@@ -0,0 +1,101 @@
+package ru.vms.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.vms.Booking;
+import ru.vms.Date;
+import ru.vms.Employee;
+import ru.vms.Reservation;
+import ru.vms.Vehicle;
+
+/**
+ * Reservation.add/remove and the availability, employee-conflict and return-path
+ * lookups that Frontend runs for B, C and R, against books of 1k to 1M bookings.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReservationBench {
+    @Param({"1000", "10000", "100000", "1000000"})
+    int fleetSize;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    int reservationSize;
+
+    private Booking[] bookings;
+    private Reservation reservation;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Vehicle[] vehicles = Fixtures.vehicles(fleetSize);
+        bookings = Fixtures.bookings(vehicles, reservationSize);
+        reservation = Fixtures.reservation(bookings);
+    }
+
+    private Booking nextBooking() {
+        Booking b = bookings[next];
+        next = next + 1 == reservationSize ? 0 : next + 1;
+        return b;
+    }
+
+    /** Cancels a booking and books it again, so the book keeps its size. */
+    @Benchmark
+    public Reservation removeAndAdd() {
+        Booking b = nextBooking();
+        reservation.remove(b);
+        reservation.add(b);
+        return reservation;
+    }
+
+    @Benchmark
+    public boolean isVehicleAvailable() {
+        Booking b = nextBooking();
+        Date day = Date.ofEpochDay(b.getEnd().toEpochDay() + 1);
+        return reservation.isVehicleAvailable(b.getVehicle().getPlate(), day, day);
+    }
+
+    @Benchmark
+    public boolean hasEmployeeConflict() {
+        Booking b = nextBooking();
+        Employee other = Employee.values()[(b.getEmployee().ordinal() + 1) % Employee.values().length];
+        return reservation.hasEmployeeConflict(other, b.getBegin(), b.getEnd());
+    }
+
+    @Benchmark
+    public Booking findByEnd() {
+        Booking b = nextBooking();
+        return reservation.findByEnd(b.getVehicle().getPlate(), b.getEnd());
+    }
+
+    @Benchmark
+    public Date earliestEnd() {
+        return reservation.earliestEnd();
+    }
+
+    /** Builds a whole book, which measures add including growth. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public Reservation build() {
+        return Fixtures.reservation(bookings);
+    }
+}
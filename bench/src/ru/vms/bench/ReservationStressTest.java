@@ -0,0 +1,174 @@
+package ru.vms.bench;
+
+import java.util.SplittableRandom;
+
+import ru.vms.Booking;
+import ru.vms.ConcurrentReservation;
+import ru.vms.Date;
+import ru.vms.Employee;
+import ru.vms.Make;
+import ru.vms.Vehicle;
+
+/**
+ * Stress test for ConcurrentReservation. Many threads book and cancel random
+ * ranges on a small fleet with few employees, so most attempts collide; then the
+ * result is checked: no vehicle or employee has overlapping bookings, every
+ * booking is in both its vehicle's and its employee's schedule, and the size
+ * matches the successful books minus the successful cancels. Last, a second book
+ * over the same Vehicle objects must not see or change the first one's bookings.
+ *
+ * Usage: ReservationStressTest [--threads n] [--ops n] [--vehicles n] [--days n]
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public class ReservationStressTest {
+    private static final Employee[] EMPLOYEES = Employee.values();
+    private static final Date FIRST = Date.valueOf(10, 1, 2025);
+
+    public static void main(String[] args) throws Exception {
+        int threads = 8;
+        int ops = 1_000_000;
+        int vehicleCount = 4;
+        int days = 30;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--ops") && i + 1 < args.length) {
+                ops = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--vehicles") && i + 1 < args.length) {
+                vehicleCount = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--days") && i + 1 < args.length) {
+                days = Integer.parseInt(args[++i]);
+            }
+        }
+
+        Vehicle[] vehicles = new Vehicle[vehicleCount];
+        for (int i = 0; i < vehicleCount; i++) {
+            vehicles[i] = new Vehicle(String.format("S%03d", i), Date.valueOf(1, 2, 2020), Make.FORD, 1000);
+        }
+        ConcurrentReservation book = new ConcurrentReservation();
+        Worker[] workers = new Worker[threads];
+        for (int t = 0; t < threads; t++) workers[t] = new Worker(book, vehicles, days, ops, t);
+        long start = System.nanoTime();
+        for (Worker w : workers) w.start();
+        long booked = 0, vehicleBusy = 0, employeeBusy = 0, canceled = 0, missed = 0;
+        for (Worker w : workers) {
+            w.join();
+            booked += w.booked;
+            vehicleBusy += w.vehicleBusy;
+            employeeBusy += w.employeeBusy;
+            canceled += w.canceled;
+            missed += w.missed;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long total = (long) threads * ops;
+        System.out.printf("%d threads, %d ops in %.2f s, %.0f ops/s, %d CAS retries%n",
+                threads, total, seconds, total / seconds, book.retries());
+        System.out.printf("booked %d, vehicle busy %d, employee busy %d, canceled %d, nothing to cancel %d%n",
+                booked, vehicleBusy, employeeBusy, canceled, missed);
+
+        String problem = verify(book, vehicles, booked - canceled);
+        if (problem == null) problem = verifySeparate(book, vehicles[0]);
+        System.out.println(problem == null ? "consistent, " + book.size() + " bookings" : "INCONSISTENT: " + problem);
+        if (problem != null) System.exit(1);
+    }
+
+    private static String verify(ConcurrentReservation book, Vehicle[] vehicles, long expected) {
+        if (book.size() != expected) return "size " + book.size() + ", expected " + expected;
+        int count = 0;
+        for (Vehicle v : vehicles) {
+            Booking[] bs = book.bookings(v);
+            String overlap = overlap(bs);
+            if (overlap != null) return v.getPlate() + ": " + overlap;
+            for (Booking b : bs) {
+                if (b.getVehicle() != v) return b + " is in the schedule of " + v.getPlate();
+                if (!contains(book.bookings(b.getEmployee()), b)) return b + " is missing from its employee";
+            }
+            count += bs.length;
+        }
+        int employeeCount = 0;
+        for (Employee e : EMPLOYEES) {
+            Booking[] bs = book.bookings(e);
+            String overlap = overlap(bs);
+            if (overlap != null) return e + ": " + overlap;
+            for (Booking b : bs) {
+                if (!contains(book.bookings(b.getVehicle()), b)) return b + " is missing from its vehicle";
+            }
+            employeeCount += bs.length;
+        }
+        if (count != expected || employeeCount != expected) {
+            return count + " vehicle and " + employeeCount + " employee bookings, expected " + expected;
+        }
+        return null;
+    }
+
+    private static String verifySeparate(ConcurrentReservation book, Vehicle v) {
+        int before = book.bookings(v).length;
+        ConcurrentReservation other = new ConcurrentReservation();
+        if (other.book(new Booking(FIRST, FIRST, EMPLOYEES[0], v)) != ConcurrentReservation.Outcome.BOOKED) {
+            return "a second book sees the bookings of " + v.getPlate();
+        }
+        if (book.bookings(v).length != before || other.bookings(v).length != 1) {
+            return "two books share the schedule of " + v.getPlate();
+        }
+        return null;
+    }
+
+    private static String overlap(Booking[] bs) {
+        for (int i = 1; i < bs.length; i++) {
+            if (bs[i].getBegin().compareTo(bs[i - 1].getEnd()) <= 0) return bs[i - 1] + " overlaps " + bs[i];
+        }
+        return null;
+    }
+
+    private static boolean contains(Booking[] bs, Booking b) {
+        for (Booking x : bs) {
+            if (x == b) return true;
+        }
+        return false;
+    }
+
+    /**
+     * One thread: books a random range three times out of four, otherwise
+     * cancels a random range, which only succeeds if the exact range is booked.
+     */
+    private static class Worker extends Thread {
+        private final ConcurrentReservation book;
+        private final Vehicle[] vehicles;
+        private final int days;
+        private final int ops;
+        private final SplittableRandom random;
+        private long booked, vehicleBusy, employeeBusy, canceled, missed;
+
+        Worker(ConcurrentReservation book, Vehicle[] vehicles, int days, int ops, int seed) {
+            this.book = book;
+            this.vehicles = vehicles;
+            this.days = days;
+            this.ops = ops;
+            this.random = new SplittableRandom(seed);
+        }
+
+        @Override
+        public void run() {
+            int first = FIRST.toEpochDay();
+            for (int i = 0; i < ops; i++) {
+                Vehicle v = vehicles[random.nextInt(vehicles.length)];
+                int day = first + random.nextInt(days);
+                Date begin = Date.ofEpochDay(day);
+                Date end = Date.ofEpochDay(day + random.nextInt(3));
+                if (random.nextInt(4) != 0) {
+                    Booking b = new Booking(begin, end, EMPLOYEES[random.nextInt(EMPLOYEES.length)], v);
+                    switch (book.book(b)) {
+                        case BOOKED: booked++; break;
+                        case VEHICLE_UNAVAILABLE: vehicleBusy++; break;
+                        default: employeeBusy++; break;
+                    }
+                } else if (book.cancel(v, begin, end) != null) {
+                    canceled++;
+                } else {
+                    missed++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package ru.vms.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import ru.vms.CommandServer;
+import ru.vms.Date;
+import ru.vms.DayClock;
+import ru.vms.Employee;
+import ru.vms.Frontend;
+import ru.vms.NullSink;
+
+/**
+ * Multi-client load test for the command server. Starts a server in this JVM,
+ * adds a fleet, then for each client count runs that many clients at once, each
+ * sending book/cancel pairs for its own vehicles in pipelined windows, and
+ * reports the throughput. Clients sharing an employee book disjoint weeks, so
+ * every command should succeed; responses that are not a success are counted
+ * as rejected, which would point at a locking bug. Finally a client sends
+ * malformed lines, which must each get a reply without closing its session.
+ *
+ * Usage: ServerLoadTest [--clients 1,2,4,8,16] [--pairs n] [--window n] [--socket path]
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public class ServerLoadTest {
+    private static final Employee[] EMPLOYEES = Employee.values();
+    private static final Date TODAY = Date.valueOf(10, 1, 2025);
+    private static final int VEHICLES_PER_CLIENT = 64;
+
+    public static void main(String[] args) throws Exception {
+        int[] clientCounts = {1, 2, 4, 8, 16};
+        int pairs = 100_000;
+        int window = 256;
+        String address = "0";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--clients") && i + 1 < args.length) {
+                String[] parts = args[++i].split(",");
+                clientCounts = new int[parts.length];
+                for (int k = 0; k < parts.length; k++) clientCounts[k] = Integer.parseInt(parts[k].trim());
+            } else if (args[i].equals("--pairs") && i + 1 < args.length) {
+                pairs = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--window") && i + 1 < args.length) {
+                window = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--socket") && i + 1 < args.length) {
+                address = args[++i];
+            }
+        }
+        int maxClients = 0;
+        for (int c : clientCounts) maxClients = Math.max(maxClients, c);
+
+        Frontend frontend = new Frontend(DayClock.fixed(TODAY), new NullSink());
+        try (CommandServer server = CommandServer.open(frontend, address)) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            SocketAddress at = server.address();
+            addFleet(at, maxClients * VEHICLES_PER_CLIENT);
+
+            System.out.printf("%8s %12s %10s %14s %10s%n", "clients", "commands", "seconds", "commands/s", "rejected");
+            for (int clients : clientCounts) {
+                Client[] running = new Client[clients];
+                for (int k = 0; k < clients; k++) running[k] = new Client(at, k, pairs, window);
+                long start = System.nanoTime();
+                for (Client c : running) c.start();
+                long commands = 0, rejected = 0;
+                for (Client c : running) {
+                    c.join();
+                    if (c.failure != null) throw c.failure;
+                    commands += c.commands;
+                    rejected += c.rejected;
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%8d %12d %10.2f %14.0f %10d%n", clients, commands, seconds, commands / seconds, rejected);
+            }
+            checkMalformed(at);
+        }
+    }
+
+    /**
+     * Sends lines with missing tokens, each followed by a valid booking and its
+     * cancellation, and checks that every line gets its reply on the same session.
+     */
+    private static void checkMalformed(SocketAddress at) throws IOException {
+        String[] malformed = {"B", "B 10/2/2025", "C 10/2/2025 10/3/2025", "A L99999", "R", "W", "D", "F"};
+        String plate = plate(0);
+        try (SocketChannel ch = connect(at)) {
+            BufferedReader in = reader(ch);
+            Writer out = writer(ch);
+            in.readLine();
+            for (String line : malformed) {
+                out.write(line + "\n");
+                out.write("B 10/2/2025 10/3/2025 " + plate + " " + EMPLOYEES[0] + "\n");
+                out.write("C 10/2/2025 10/3/2025 " + plate + "\n");
+            }
+            out.write("Q\n");
+            out.flush();
+            for (String line : malformed) {
+                expect(in, line + " - invalid command!");
+                expect(in, " booked.");
+                expect(in, " has been canceled.");
+            }
+            expect(in, "Vehicle Management System is terminated.");
+        }
+        System.out.println("malformed lines: " + malformed.length + " answered, session kept open");
+    }
+
+    private static void expect(BufferedReader in, String ending) throws IOException {
+        String reply = in.readLine();
+        if (reply == null) throw new IOException("server closed the connection");
+        if (!reply.endsWith(ending)) throw new IllegalStateException("expected ..." + ending + " but got " + reply);
+    }
+
+    private static String plate(int i) {
+        return String.format("L%05d", i);
+    }
+
+    private static void addFleet(SocketAddress at, int vehicles) throws IOException {
+        try (SocketChannel ch = connect(at)) {
+            BufferedReader in = reader(ch);
+            Writer out = writer(ch);
+            in.readLine();
+            for (int i = 0; i < vehicles; i++) {
+                out.write("A " + plate(i) + " 1/2/2020 FORD 1000\n");
+            }
+            out.write("Q\n");
+            out.flush();
+            for (int i = 0; i <= vehicles; i++) in.readLine();
+        }
+    }
+
+    private static SocketChannel connect(SocketAddress at) throws IOException {
+        SocketChannel ch = SocketChannel.open(at);
+        if (ch.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        return ch;
+    }
+
+    private static BufferedReader reader(SocketChannel ch) {
+        return new BufferedReader(new InputStreamReader(Channels.newInputStream(ch), StandardCharsets.UTF_8));
+    }
+
+    private static Writer writer(SocketChannel ch) {
+        return new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(ch), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * One client: books and cancels its own vehicles, window pairs at a time.
+     */
+    private static class Client extends Thread {
+        private final SocketAddress at;
+        private final int id;
+        private final int pairs;
+        private final int window;
+        private long commands;
+        private long rejected;
+        private Exception failure;
+
+        Client(SocketAddress at, int id, int pairs, int window) {
+            this.at = at;
+            this.id = id;
+            this.pairs = pairs;
+            this.window = window;
+        }
+
+        @Override
+        public void run() {
+            Employee emp = EMPLOYEES[id % EMPLOYEES.length];
+            int firstDay = TODAY.toEpochDay() + 1 + (id / EMPLOYEES.length) * 7;
+            try (SocketChannel ch = connect(at)) {
+                BufferedReader in = reader(ch);
+                Writer out = writer(ch);
+                in.readLine();
+                for (int done = 0; done < pairs; ) {
+                    int n = Math.min(window, pairs - done);
+                    for (int i = 0; i < n; i++) {
+                        int k = done + i;
+                        String plate = plate(id * VEHICLES_PER_CLIENT + k % VEHICLES_PER_CLIENT);
+                        Date begin = Date.ofEpochDay(firstDay + k % 3);
+                        Date end = Date.ofEpochDay(firstDay + k % 3 + 2);
+                        out.write("B " + begin + " " + end + " " + plate + " " + emp + "\n");
+                        out.write("C " + begin + " " + end + " " + plate + "\n");
+                    }
+                    out.flush();
+                    for (int i = 0; i < 2 * n; i++) {
+                        String reply = in.readLine();
+                        if (reply == null) throw new IOException("server closed the connection");
+                        if (!reply.endsWith(" booked.") && !reply.endsWith(" has been canceled.")) rejected++;
+                    }
+                    done += n;
+                    commands += 2L * n;
+                }
+                out.write("Q\n");
+                out.flush();
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package ru.vms.bench;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import ru.vms.Booking;
+import ru.vms.Date;
+import ru.vms.DayClock;
+import ru.vms.Employee;
+import ru.vms.Make;
+import ru.vms.Reservation;
+import ru.vms.Vehicle;
+
+/**
+ * Writes a seeded, reproducible command script in the A/D/B/C/R/PF/PR/PD/PT/Q grammar.
+ * The generator replays its own commands against a Reservation, so every command it
+ * means to be valid follows the Frontend rules (begin within 3 months of today, at
+ * most 7 days, no vehicle or employee overlap, returns in ending-date order) and
+ * succeeds when the script is run with the same --today. D only removes a vehicle
+ * with no bookings, and a removed vehicle is added back later with A, so the fleet
+ * keeps its size. --density caps the share of the vehicle-days in the 3-month
+ * booking window that are booked at once; above it, a B is replaced by a C. A share
+ * of commands is deliberately invalid. Counts of the intended outcomes go to
+ * standard error. The fleet must hold at least one vehicle.
+ *
+ * Usage: WorkloadGenerator [--seed n] [--lines n] [--fleet n] [--today m/d/yyyy]
+ *        [--book w] [--cancel w] [--return w] [--delete w] [--invalid w] [--density d]
+ *        [--report-every n] [--out file]
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public class WorkloadGenerator {
+    private static final Make[] MAKES = Make.values();
+    private static final Employee[] EMPLOYEES = Employee.values();
+    private static final String[] REPORTS = {"PF", "PR", "PD", "PT"};
+    private static final int MAX_DAYS = 7;
+    private static final int BOOKING_ATTEMPTS = 8;
+    private static final String USAGE = "Usage: WorkloadGenerator [--seed n] [--lines n] [--fleet n] [--today m/d/yyyy]\n"
+            + "       [--book w] [--cancel w] [--return w] [--delete w] [--invalid w] [--density d]\n"
+            + "       [--report-every n] [--out file]";
+
+    private long seed = 1;
+    private long lines = 100_000;
+    private int fleetSize = 1_000;
+    private Date today = Date.fromString("10/1/2025");
+    private double bookWeight = 0.5;
+    private double cancelWeight = 0.1;
+    private double returnWeight = 0.3;
+    private double deleteWeight = 0.02;
+    private double invalidWeight = 0.05;
+    private double density = 1.0;
+    private int reportEvery = 1_000;
+    private String outFile;
+
+    private Random random;
+    private Writer out;
+    private long written;
+    private int firstDay;
+    private int lastDay;
+    /** The fleet: vehicles[0, fleet) are in it, the rest were deleted. */
+    private Vehicle[] vehicles;
+    private int fleet;
+    private long bookedDays;
+    private final Reservation model = new Reservation();
+    private final List<Booking> active = new ArrayList<>();
+    private final PriorityQueue<Booking> byEnd = new PriorityQueue<>((a, b) -> a.getEnd().compareTo(b.getEnd()));
+    private long booked;
+    private long canceled;
+    private long returned;
+    private long deleted;
+    private long added;
+    private long invalid;
+
+    public static void main(String[] args) throws IOException {
+        WorkloadGenerator g = new WorkloadGenerator();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String v = args[i + 1];
+            switch (args[i]) {
+                case "--seed": g.seed = Long.parseLong(v); break;
+                case "--lines": g.lines = Long.parseLong(v); break;
+                case "--fleet": g.fleetSize = Integer.parseInt(v); break;
+                case "--today": g.today = Date.fromString(v); break;
+                case "--book": g.bookWeight = Double.parseDouble(v); break;
+                case "--cancel": g.cancelWeight = Double.parseDouble(v); break;
+                case "--return": g.returnWeight = Double.parseDouble(v); break;
+                case "--delete": g.deleteWeight = Double.parseDouble(v); break;
+                case "--density": g.density = Double.parseDouble(v); break;
+                case "--invalid": g.invalidWeight = Double.parseDouble(v); break;
+                case "--report-every": g.reportEvery = Integer.parseInt(v); break;
+                case "--out": g.outFile = v; break;
+                default: usage(args[i] + " - unknown option.");
+            }
+        }
+        if (g.fleetSize < 1) usage(g.fleetSize + " - the fleet needs at least 1 vehicle.");
+        g.generate();
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+
+    private void generate() throws IOException {
+        DayClock clock = DayClock.fixed(today);
+        firstDay = clock.today();
+        lastDay = today.plusMonths(3).toEpochDay();
+        random = new Random(seed);
+        out = new BufferedWriter(new OutputStreamWriter(
+                outFile == null ? System.out : new FileOutputStream(outFile), StandardCharsets.UTF_8), 1 << 16);
+        try {
+            addFleet();
+            double total = bookWeight + cancelWeight + returnWeight + deleteWeight + invalidWeight;
+            while (written < lines - 1) {
+                if (reportEvery > 0 && written % reportEvery == reportEvery - 1) {
+                    emit(REPORTS[random.nextInt(REPORTS.length)]);
+                    continue;
+                }
+                double k = random.nextDouble() * total;
+                if ((k -= bookWeight) < 0) {
+                    if (bookedDays < density * fleet * (lastDay - firstDay + 1)) book();
+                    else cancel();
+                } else if ((k -= cancelWeight) < 0) cancel();
+                else if ((k -= returnWeight) < 0) giveBack();
+                else if ((k -= deleteWeight) < 0) deleteOrAdd();
+                else emitInvalid();
+            }
+            emit("Q");
+        } finally {
+            out.flush();
+            if (outFile != null) out.close();
+        }
+        System.err.printf("lines=%d booked=%d canceled=%d returned=%d deleted=%d added=%d invalid=%d%n",
+                written, booked, canceled, returned, deleted, added, invalid);
+    }
+
+    private void emit(String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+        written++;
+    }
+
+    private static String day(int epochDay) {
+        return Date.ofEpochDay(epochDay).toString();
+    }
+
+    private void addFleet() throws IOException {
+        vehicles = new Vehicle[fleetSize];
+        for (int i = 0; i < fleetSize && written < lines - 1; i++, fleet++) {
+            Date obtained = Date.ofEpochDay(firstDay - 1 - random.nextInt(5000));
+            vehicles[i] = new Vehicle(String.format("%06d%c", i, (char) ('A' + i % 26)), obtained,
+                    MAKES[random.nextInt(MAKES.length)], 1 + random.nextInt(150_000));
+            emit("A " + vehicles[i].getPlate() + " " + obtained + " " + vehicles[i].getMake() + " "
+                    + vehicles[i].getMileage());
+        }
+    }
+
+    private void book() throws IOException {
+        for (int attempt = 0; attempt < BOOKING_ATTEMPTS; attempt++) {
+            int begin = firstDay + random.nextInt(lastDay - firstDay + 1);
+            int end = begin + random.nextInt(MAX_DAYS);
+            Vehicle v = vehicles[random.nextInt(fleet)];
+            Employee emp = EMPLOYEES[random.nextInt(EMPLOYEES.length)];
+            Date b = Date.ofEpochDay(begin), e = Date.ofEpochDay(end);
+            if (!model.isVehicleAvailable(v.getPlate(), b, e) || model.hasEmployeeConflict(emp, b, e)) continue;
+            Booking booking = new Booking(b, e, emp, v);
+            model.add(booking);
+            active.add(booking);
+            byEnd.add(booking);
+            bookedDays += end - begin + 1;
+            booked++;
+            emit("B " + b + " " + e + " " + v.getPlate() + " " + emp.name().toLowerCase());
+            return;
+        }
+        giveBack();
+    }
+
+    private void cancel() throws IOException {
+        if (active.isEmpty()) {
+            book();
+            return;
+        }
+        int i = random.nextInt(active.size());
+        Booking b = active.get(i);
+        forget(b, i);
+        canceled++;
+        emit("C " + b.getBegin() + " " + b.getEnd() + " " + b.getVehicle().getPlate());
+    }
+
+    private void giveBack() throws IOException {
+        Booking b = byEnd.peek();
+        if (b == null) {
+            emitInvalid();
+            return;
+        }
+        forget(b, active.indexOf(b));
+        Vehicle v = b.getVehicle();
+        v.setMileage(v.getMileage() + 1 + random.nextInt(1_000));
+        returned++;
+        emit("R " + b.getEnd() + " " + v.getPlate() + " " + v.getMileage());
+    }
+
+    /**
+     * Removes a vehicle with no bookings from the fleet, or, if the coin says so
+     * and one was removed before, adds a removed vehicle back.
+     */
+    private void deleteOrAdd() throws IOException {
+        if (fleet < vehicles.length && (fleet == 0 || random.nextBoolean())) {
+            Vehicle v = vehicles[fleet];
+            fleet++;
+            added++;
+            emit("A " + v.getPlate() + " " + v.getObtained() + " " + v.getMake() + " " + v.getMileage());
+            return;
+        }
+        for (int attempt = 0; attempt < BOOKING_ATTEMPTS && fleet > 1; attempt++) {
+            int i = random.nextInt(fleet);
+            Vehicle v = vehicles[i];
+            if (model.hasVehicleBookings(v.getPlate())) continue;
+            fleet--;
+            vehicles[i] = vehicles[fleet];
+            vehicles[fleet] = v;
+            deleted++;
+            emit("D " + v.getPlate());
+            return;
+        }
+        book();
+    }
+
+    private void forget(Booking b, int activeIndex) {
+        bookedDays -= b.getEnd().toEpochDay() - b.getBegin().toEpochDay() + 1;
+        model.remove(b);
+        byEnd.remove(b);
+        Booking last = active.remove(active.size() - 1);
+        if (activeIndex < active.size()) active.set(activeIndex, last);
+    }
+
+    private void emitInvalid() throws IOException {
+        invalid++;
+        String plate = vehicles[random.nextInt(fleet)].getPlate();
+        String emp = EMPLOYEES[random.nextInt(EMPLOYEES.length)].name();
+        int begin = firstDay + random.nextInt(lastDay - firstDay + 1);
+        switch (random.nextInt(10)) {
+            case 0: emit("A " + plate + " " + day(firstDay - 10) + " FORD 100"); break;
+            case 1: emit("A NEW" + written + " 2/30/2020 TOYOTA 100"); break;
+            case 2: emit("B " + day(firstDay - 1) + " " + day(firstDay) + " " + plate + " " + emp); break;
+            case 3: emit("B " + day(lastDay + 1) + " " + day(lastDay + 2) + " " + plate + " " + emp); break;
+            case 4: emit("B " + day(begin) + " " + day(begin + MAX_DAYS) + " " + plate + " " + emp); break;
+            case 5: emit("B " + day(begin) + " " + day(begin) + " NOPE" + written + " " + emp); break;
+            case 6: emit("C " + day(begin) + " " + day(begin) + " NOPE" + written); break;
+            case 7: emit("R " + day(begin) + " NOPE" + written + " 100"); break;
+            case 8: emit("D NOPE" + written); break;
+            default: emit("X" + written); break;
+        }
+    }
+}
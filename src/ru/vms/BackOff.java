@@ -0,0 +1,25 @@
+package ru.vms;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waiting policy for threads that poll a counter another thread advances:
+ * spin first, then give up the processor, then sleep briefly, so a short wait
+ * costs no context switch and a long one costs no processor.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+final class BackOff {
+    private BackOff() {
+    }
+
+    /**
+     * Waits once; call with 0, 1, 2, ... while the awaited condition is false.
+     * @param round the number of times the caller has already waited
+     */
+    static void pause(int round) {
+        if (round < 64) Thread.onSpinWait();
+        else if (round < 128) Thread.yield();
+        else LockSupport.parkNanos(20_000);
+    }
+}
@@ -77,6 +77,15 @@ public class Booking {
                 && end.equals(other.end);
     }
 
+    /**
+     * Gets a hash code consistent with equals(): from the plate and the dates.
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        return (vehicle.hashCode() * 31 + begin.hashCode()) * 31 + end.hashCode();
+    }
+
     /**
      * Returns a string including the vehicle, dates, and employee.
      * @return the string representation of this booking
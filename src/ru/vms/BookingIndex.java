@@ -0,0 +1,127 @@
+package ru.vms;
+
+/**
+ * Open-addressing hash table from (plate, ending epoch day) to a booking id.
+ * The bookings of a vehicle never overlap, so no two of them end on the same
+ * day and the pair identifies a booking; a lookup by (plate, beginning date,
+ * ending date) is the same lookup plus a check of the beginning date. Uses
+ * linear probing with backward-shift deletion, like PlateIndex.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+class BookingIndex {
+    static final int NOT_FOUND = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] plates;
+    private int[] ends;
+    private int[] ids;
+    private int size;
+
+    /**
+     * Creates an empty index.
+     */
+    BookingIndex() {
+        this.plates = new String[INITIAL_CAPACITY];
+        this.ends = new int[INITIAL_CAPACITY];
+        this.ids = new int[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    private static int hash(String plate, int end) {
+        int h = (plate.hashCode() * 31 + end) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int probe(String plate, int end) {
+        int mask = plates.length - 1;
+        int i = hash(plate, end) & mask;
+        while (plates[i] != null && !(ends[i] == end && plates[i].equals(plate))) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void rehash() {
+        String[] oldPlates = plates;
+        int[] oldEnds = ends;
+        int[] oldIds = ids;
+        plates = new String[oldPlates.length * 2];
+        ends = new int[oldPlates.length * 2];
+        ids = new int[oldPlates.length * 2];
+        for (int i = 0; i < oldPlates.length; i++) {
+            if (oldPlates[i] != null) {
+                int j = probe(oldPlates[i], oldEnds[i]);
+                plates[j] = oldPlates[i];
+                ends[j] = oldEnds[i];
+                ids[j] = oldIds[i];
+            }
+        }
+    }
+
+    /**
+     * Gets the id of the booking of a vehicle with the given ending date.
+     * @param plate the license plate of the vehicle
+     * @param end the ending epoch day
+     * @return the id, or NOT_FOUND if there is none
+     */
+    int get(String plate, int end) {
+        int i = probe(plate, end);
+        return plates[i] == null ? NOT_FOUND : ids[i];
+    }
+
+    /**
+     * Stores or replaces the id for a plate and ending date, growing the table
+     * at half load.
+     * @param plate the license plate of the vehicle
+     * @param end the ending epoch day
+     * @param id the booking's id
+     */
+    void put(String plate, int end, int id) {
+        int i = probe(plate, end);
+        if (plates[i] == null) {
+            if (2 * (size + 1) > plates.length) {
+                rehash();
+                i = probe(plate, end);
+            }
+            plates[i] = plate;
+            ends[i] = end;
+            size++;
+        }
+        ids[i] = id;
+    }
+
+    /**
+     * Removes a plate and ending date and shifts back any entries that probed
+     * past it.
+     * @param plate the license plate of the vehicle
+     * @param end the ending epoch day
+     */
+    void remove(String plate, int end) {
+        int mask = plates.length - 1;
+        int hole = probe(plate, end);
+        if (plates[hole] == null) return;
+        int i = (hole + 1) & mask;
+        while (plates[i] != null) {
+            int home = hash(plates[i], ends[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                plates[hole] = plates[i];
+                ends[hole] = ends[i];
+                ids[hole] = ids[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        plates[hole] = null;
+        size--;
+    }
+
+    /**
+     * Gets the number of indexed bookings.
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+}
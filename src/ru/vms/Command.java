@@ -0,0 +1,434 @@
+package ru.vms;
+
+import java.util.NoSuchElementException;
+
+/**
+ * One command line, split into the stages Frontend runs it in: parse() reads the
+ * tokens, validate() makes every check that does not depend on the fleet or the
+ * bookings, and Frontend.execute() makes the rest and changes the state. The
+ * first two stages only read the clock, so they can run on other threads ahead
+ * of the state changes (see CommandPipeline).
+ * <p>
+ * Checks are answered in the left-to-right order of the line. A stateless check
+ * that comes after a state check, such as the employee of a booking or the
+ * mileage of a return, cannot be answered by validate(); its rejection is kept
+ * as late and reported by execute() once the state checks before it pass. A
+ * missing token is reported the same way, as the NoSuchElementException that
+ * reading it would throw.
+ * <p>
+ * A command is reused for the next line once it has been executed.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+final class Command {
+    /** The kinds of command lines, with the command token of each. */
+    enum Kind {
+        ADD("A"), DELETE("D"), BOOK("B"), CANCEL("C"), RETURN("R"), PRINT_FLEET("PF"),
+        PRINT_RESERVATIONS("PR"), PRINT_DEPT("PD"), PRINT_TRIPS("PT"), PRINT_METRICS("PM"),
+        PRINT_UTILIZATION("PU"), PRINT_BOOKED_OUT("PB"), FIND("F"), BOOK_FIRST("BF"), WINDOW("W"),
+        INVALID(null), QUIT("Q"), END(null);
+
+        private final String token;
+
+        Kind(String token) {
+            this.token = token;
+        }
+
+        /**
+         * Gets the command token of this kind.
+         * @return the token, or null for lines that are not a command
+         */
+        String token() {
+            return token;
+        }
+    }
+
+    private static final int MAX_ARGS = 4;
+
+    /** The position of the line in the input. */
+    long seq;
+    /** System.nanoTime() when the frontend started on the command. */
+    long started;
+    Kind kind;
+    /** The command token, as typed. */
+    String name;
+    /**
+     * The tokens after the command, null where the line ends early: A plate
+     * obtained make mileage; D plate; B begin end plate employee; C begin end
+     * plate; R end plate mileage; PU day [make]; PB [make]; F begin end make
+     * [limit]; BF begin end make employee; W plate days [earliest].
+     */
+    final String[] args = new String[MAX_ARGS];
+
+    String plate;
+    Date obtained;
+    Date begin;
+    Date end;
+    Make make;
+    int mileage;
+    Employee employee;
+    /** The most vehicles an F command lists, or 0 for no limit. */
+    int limit;
+    /** The length of the window a W command searches for. */
+    int days;
+
+    /** True if validate() decided the outcome: the reply or failure below. */
+    boolean settled;
+    /** The response decided by validation, or null for none. */
+    String reply;
+    /** Why validation rejected the command, or null if it did not. */
+    Metrics.Rejection rejection;
+    /** The exception the line throws when it is executed, if settled. */
+    RuntimeException failure;
+    /** A rejection to report after the state checks that come before it pass. */
+    String lateReply;
+    /** An exception to throw after the state checks that come before it pass. */
+    RuntimeException lateFailure;
+    /** Why the late rejection rejects the command. */
+    Metrics.Rejection lateRejection;
+
+    /**
+     * Reads a non-blank line held in chars[from, to) with no leading or
+     * trailing whitespace.
+     * @param chars the characters holding the line
+     * @param from the index of the first character of the line
+     * @param to the index after the last character of the line
+     */
+    void parse(CharSequence chars, int from, int to) {
+        reset();
+        if (chars.charAt(from) == 'Q') {
+            kind = Kind.QUIT;
+            return;
+        }
+        CommandTokenizer st = new CommandTokenizer(chars, from, to);
+        name = st.nextToken();
+        kind = kindOf(name);
+        int n = argCount(kind);
+        for (int i = 0; i < n && st.hasMoreTokens(); i++) args[i] = st.nextToken();
+    }
+
+    /**
+     * Marks this command as the end of the input.
+     */
+    void parseEnd() {
+        reset();
+        kind = Kind.END;
+    }
+
+    private void reset() {
+        for (int i = 0; i < MAX_ARGS; i++) args[i] = null;
+        name = null;
+        plate = null;
+        obtained = null;
+        begin = null;
+        end = null;
+        make = null;
+        mileage = 0;
+        employee = null;
+        limit = 0;
+        days = 0;
+        settled = false;
+        reply = null;
+        rejection = null;
+        failure = null;
+        lateReply = null;
+        lateFailure = null;
+        lateRejection = null;
+    }
+
+    private static Kind kindOf(String name) {
+        switch (name) {
+            case "A": return Kind.ADD;
+            case "D": return Kind.DELETE;
+            case "B": return Kind.BOOK;
+            case "C": return Kind.CANCEL;
+            case "R": return Kind.RETURN;
+            case "PF": return Kind.PRINT_FLEET;
+            case "PR": return Kind.PRINT_RESERVATIONS;
+            case "PD": return Kind.PRINT_DEPT;
+            case "PT": return Kind.PRINT_TRIPS;
+            case "PM": return Kind.PRINT_METRICS;
+            case "PU": return Kind.PRINT_UTILIZATION;
+            case "PB": return Kind.PRINT_BOOKED_OUT;
+            case "F": return Kind.FIND;
+            case "BF": return Kind.BOOK_FIRST;
+            case "W": return Kind.WINDOW;
+            default: return Kind.INVALID;
+        }
+    }
+
+    private static int argCount(Kind kind) {
+        switch (kind) {
+            case ADD:
+            case BOOK:
+            case FIND:
+            case BOOK_FIRST: return 4;
+            case CANCEL:
+            case RETURN:
+            case WINDOW: return 3;
+            case PRINT_UTILIZATION: return 2;
+            case DELETE:
+            case PRINT_BOOKED_OUT: return 1;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Makes the checks that only need the clock, in the order of the line. The
+     * day is read once, so every check of the line sees the same today and limit.
+     * @param clock the clock that defines today
+     */
+    void validate(DayClock clock) {
+        DayClock.Day day = clock.day();
+        switch (kind) {
+            case ADD: validateAdd(day); break;
+            case DELETE: plate = require(0); break;
+            case BOOK: validateBook(day); break;
+            case CANCEL: validateCancel(); break;
+            case RETURN: validateReturn(); break;
+            case PRINT_UTILIZATION: validateUtilization(); break;
+            case PRINT_BOOKED_OUT: validateMake(0); break;
+            case FIND: validateFind(day); break;
+            case BOOK_FIRST: validateBookFirst(day); break;
+            case WINDOW: validateWindow(day); break;
+            case INVALID:
+                settle(Metrics.Rejection.INVALID_COMMAND, name + " - invalid command!");
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Gets a token that the line must have; if it is missing, settles the
+     * command with the exception reading it would throw.
+     */
+    private String require(int i) {
+        if (args[i] == null && !settled) {
+            settled = true;
+            failure = new NoSuchElementException();
+        }
+        return args[i];
+    }
+
+    private void settle(Metrics.Rejection reason, String reply) {
+        settled = true;
+        this.rejection = reason;
+        this.reply = reply;
+    }
+
+    private void settleLate(Metrics.Rejection reason, String reply) {
+        lateRejection = reason;
+        lateReply = reply;
+    }
+
+    private void validateAdd(DayClock.Day day) {
+        plate = require(0);
+        String obtainedTok = require(1);
+        if (settled) return;
+        obtained = Date.fromString(obtainedTok);
+        if (obtained == null || !obtained.isValid()) {
+            settle(Metrics.Rejection.INVALID_DATE, obtainedTok + " - invalid calendar date.");
+            return;
+        }
+        if (!day.isBeforeToday(obtained)) {
+            settle(Metrics.Rejection.NOT_IN_PAST, obtainedTok + " - is today or a future date.");
+            return;
+        }
+        String makeTok = require(2);
+        if (settled) return;
+        try {
+            make = Make.valueOf(makeTok.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            settle(Metrics.Rejection.INVALID_MAKE, makeTok + " - invalid make.");
+            return;
+        }
+        String mileageTok = require(3);
+        if (settled) return;
+        try {
+            mileage = Integer.parseInt(mileageTok);
+        } catch (NumberFormatException e) {
+            settle(Metrics.Rejection.INVALID_MILEAGE, mileageTok + " - invalid mileage.");
+            return;
+        }
+        if (mileage <= 0) {
+            settle(Metrics.Rejection.INVALID_MILEAGE, mileageTok + " - invalid mileage.");
+        }
+    }
+
+    private void validateBook(DayClock.Day day) {
+        validateRange(day);
+        plate = require(2);
+        if (settled) return;
+        String empTok = args[3];
+        if (empTok == null) {
+            lateFailure = new NoSuchElementException();
+            return;
+        }
+        try {
+            employee = Employee.valueOf(empTok.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            settleLate(Metrics.Rejection.INVALID_EMPLOYEE, empTok + " - not an eligible employee to book.");
+        }
+    }
+
+    /**
+     * Checks the begin and end tokens of a booking range, as B does.
+     */
+    private void validateRange(DayClock.Day day) {
+        String beginTok = require(0);
+        if (settled) return;
+        begin = Date.fromString(beginTok);
+        if (begin == null || !begin.isValid()) {
+            settle(Metrics.Rejection.INVALID_DATE, beginTok + " - beginning date is not a valid calendar date.");
+            return;
+        }
+        if (day.isBeforeToday(begin)) {
+            settle(Metrics.Rejection.IN_PAST, beginTok + " - beginning date is not today or a future date.");
+            return;
+        }
+        if (!day.withinThreeMonths(begin)) {
+            settle(Metrics.Rejection.BEYOND_THREE_MONTHS, beginTok + " - beginning date beyond 3 months.");
+            return;
+        }
+        String endTok = require(1);
+        if (settled) return;
+        end = Date.fromString(endTok);
+        if (end == null || !end.isValid()) {
+            settle(Metrics.Rejection.INVALID_DATE, endTok + " - ending date is not a valid calendar date.");
+            return;
+        }
+        if (end.compareTo(begin) < 0) {
+            settle(Metrics.Rejection.END_BEFORE_BEGIN,
+                    endTok + " - ending date must be equal or after the beginning date " + beginTok);
+            return;
+        }
+        if (end.toEpochDay() - begin.toEpochDay() + 1 > 7) {
+            settle(Metrics.Rejection.LONGER_THAN_A_WEEK, beginTok + " ~ " + endTok + " - duration more than a week.");
+        }
+    }
+
+    private void validateFind(DayClock.Day day) {
+        validateRange(day);
+        require(2);
+        if (settled) return;
+        validateMake(2);
+        String limitTok = args[3];
+        if (settled || limitTok == null) return;
+        try {
+            limit = Integer.parseInt(limitTok);
+        } catch (NumberFormatException e) {
+            settle(Metrics.Rejection.INVALID_LIMIT, limitTok + " - invalid limit.");
+            return;
+        }
+        if (limit <= 0) settle(Metrics.Rejection.INVALID_LIMIT, limitTok + " - invalid limit.");
+    }
+
+    /**
+     * Checks a BF command. No state check comes before the employee, so an
+     * ineligible employee settles the command at once.
+     */
+    private void validateBookFirst(DayClock.Day day) {
+        validateRange(day);
+        require(2);
+        if (settled) return;
+        validateMake(2);
+        String empTok = require(3);
+        if (settled) return;
+        try {
+            employee = Employee.valueOf(empTok.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            settle(Metrics.Rejection.INVALID_EMPLOYEE, empTok + " - not an eligible employee to book.");
+        }
+    }
+
+    private void validateUtilization() {
+        String dayTok = require(0);
+        if (settled) return;
+        begin = Date.fromString(dayTok);
+        if (begin == null || !begin.isValid()) {
+            settle(Metrics.Rejection.INVALID_DATE, dayTok + " - invalid calendar date.");
+            return;
+        }
+        end = begin;
+        validateMake(1);
+    }
+
+    /** Reads an optional make; make stays null if the line ends before it. */
+    private void validateMake(int i) {
+        String makeTok = args[i];
+        if (makeTok == null) return;
+        try {
+            make = Make.valueOf(makeTok.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            settle(Metrics.Rejection.INVALID_MAKE, makeTok + " - invalid make.");
+        }
+    }
+
+    /**
+     * Checks a W command. An earliest first day before today is moved to today;
+     * one past the booking limit cannot begin a booking.
+     */
+    private void validateWindow(DayClock.Day day) {
+        plate = require(0);
+        String daysTok = require(1);
+        if (settled) return;
+        try {
+            days = Integer.parseInt(daysTok);
+        } catch (NumberFormatException e) {
+            settle(Metrics.Rejection.INVALID_DURATION, daysTok + " - invalid duration; must be 1 to 7 days.");
+            return;
+        }
+        if (days < 1 || days > 7) {
+            settle(Metrics.Rejection.INVALID_DURATION, daysTok + " - invalid duration; must be 1 to 7 days.");
+            return;
+        }
+        String fromTok = args[2];
+        if (fromTok == null) {
+            begin = Date.ofEpochDay(day.today);
+            return;
+        }
+        begin = Date.fromString(fromTok);
+        if (begin == null || !begin.isValid()) {
+            settle(Metrics.Rejection.INVALID_DATE, fromTok + " - invalid calendar date.");
+            return;
+        }
+        if (!day.withinThreeMonths(begin)) {
+            settle(Metrics.Rejection.BEYOND_THREE_MONTHS, fromTok + " - beginning date beyond 3 months.");
+            return;
+        }
+        if (day.isBeforeToday(begin)) begin = Date.ofEpochDay(day.today);
+    }
+
+    private void validateCancel() {
+        require(0);
+        require(1);
+        plate = require(2);
+        if (settled) return;
+        begin = Date.fromString(args[0]);
+        end = Date.fromString(args[1]);
+        if (begin == null || end == null || !begin.isValid() || !end.isValid()) {
+            settle(Metrics.Rejection.INVALID_DATE, null);
+        }
+    }
+
+    private void validateReturn() {
+        require(0);
+        plate = require(1);
+        String mileageTok = require(2);
+        if (settled) return;
+        end = Date.fromString(args[0]);
+        if (end == null || !end.isValid()) {
+            settle(Metrics.Rejection.INVALID_DATE, null);
+            return;
+        }
+        try {
+            mileage = Integer.parseInt(mileageTok);
+        } catch (NumberFormatException e) {
+            settleLate(Metrics.Rejection.INVALID_MILEAGE, mileageTok + " - invalid mileage.");
+            return;
+        }
+        if (mileage <= 0) {
+            settleLate(Metrics.Rejection.INVALID_MILEAGE, mileageTok + " - invalid mileage.");
+        }
+    }
+}
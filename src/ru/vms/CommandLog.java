@@ -0,0 +1,447 @@
+package ru.vms;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of the state changes made by the A, D, B, C and R
+ * commands. Only changes that were applied are logged, already validated, so a
+ * replay applies them again without checking them against today's date.
+ * <p>
+ * Records are collected in a buffer and written out when it fills or on
+ * commit(), which forces the channel once for all records since the previous
+ * commit (group commit). The Frontend commits before every flush of its output,
+ * so interactive responses are only shown for changes that are on disk.
+ * <p>
+ * The log may be shared by the sessions of the command server. Records are
+ * added and the buffer written out under the log's monitor, and force() runs
+ * under a separate lock, so sessions keep logging while one forces; a session
+ * whose records were covered by a force that just finished does not force again.
+ * <p>
+ * The file starts with a header (magic, version, epoch); each record is its
+ * payload length, the CRC32 of the payload, and the payload. A record torn by a
+ * crash fails its length or CRC check; when no intact record follows it, it is the
+ * torn tail and is cut off when the log is opened, with a note on stderr. A bad
+ * record with intact records after it is corruption, and opening the log fails.
+ * A log is read through mapped windows of MAP_WINDOW bytes, so it may grow past
+ * what one mapping can hold and still be replayed.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public class CommandLog implements Closeable {
+    private static final int MAGIC = 0x564D534C;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Bytes mapped at a time when the log is read; a record never spans more than BUFFER_SIZE. */
+    private static final long MAP_WINDOW = 1L << 26;
+
+    private static final byte ADD = 'A';
+    private static final byte DELETE = 'D';
+    private static final byte BOOK = 'B';
+    private static final byte CANCEL = 'C';
+    private static final byte RETURN = 'R';
+
+    private final FileChannel channel;
+    private long epoch;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private final Object forceLock = new Object();
+    private long end;
+    private volatile long records;
+    private long forced;
+
+    private CommandLog(FileChannel channel, long epoch, long end, long records) {
+        this.channel = channel;
+        this.epoch = epoch;
+        this.end = end;
+        this.records = records;
+        this.forced = end;
+    }
+
+    /**
+     * Opens a log, creating it if it does not exist. The records are checked and
+     * a torn record at the end is cut off, so new records follow the last good one.
+     * @param file the path of the log
+     * @return the open log
+     * @throws IOException if the file cannot be opened, is not a log, or has a
+     *         corrupt record before intact ones
+     */
+    public static CommandLog open(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (ch.size() < HEADER_SIZE) {
+                ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+                h.putInt(MAGIC).putInt(VERSION).putLong(0L).flip();
+                ch.truncate(0);
+                writeFully(ch, h, 0);
+                ch.force(true);
+                return new CommandLog(ch, 0L, HEADER_SIZE, 0);
+            }
+            ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+            while (h.hasRemaining() && ch.read(h, h.position()) >= 0) { }
+            h.flip();
+            if (h.getInt() != MAGIC || h.getInt() != VERSION) {
+                throw new IOException(file + " is not a command log");
+            }
+            long epoch = h.getLong();
+            long size = ch.size();
+            long base = HEADER_SIZE;
+            MappedByteBuffer data = window(ch, base, size);
+            CRC32 check = new CRC32();
+            long pos = HEADER_SIZE;
+            long count = 0;
+            while (true) {
+                if (pos - base > data.limit() - BUFFER_SIZE && base + data.limit() < size) {
+                    base = pos;
+                    data = window(ch, base, size);
+                }
+                int next = nextRecord(data, (int) (pos - base), check);
+                if (next < 0) break;
+                pos = base + next;
+                count++;
+            }
+            if (pos < size) {
+                long intact = intactAfter(ch, pos + 1, size, check);
+                if (intact >= 0) {
+                    throw new IOException("corrupt record at offset " + pos
+                            + " followed by an intact record at offset " + intact);
+                }
+                System.err.println(file + " - cut a torn record of " + (size - pos)
+                        + " bytes at offset " + pos + " off the command log");
+                ch.truncate(pos);
+                ch.force(true);
+            }
+            return new CommandLog(ch, epoch, pos, count);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Looks for an intact record starting anywhere from from to the end of the log.
+     * @return the offset of the first one found, or -1 if there is none
+     */
+    private static long intactAfter(FileChannel ch, long from, long size, CRC32 check) throws IOException {
+        if (from >= size) return -1;
+        long base = from;
+        MappedByteBuffer data = window(ch, base, size);
+        for (long pos = from; pos < size; pos++) {
+            if (pos - base > data.limit() - BUFFER_SIZE && base + data.limit() < size) {
+                base = pos;
+                data = window(ch, base, size);
+            }
+            if (nextRecord(data, (int) (pos - base), check) >= 0) return pos;
+        }
+        return -1;
+    }
+
+    /**
+     * Maps the part of the log from base up to MAP_WINDOW bytes long, ending no
+     * later than end. Every record starting at least BUFFER_SIZE bytes before the
+     * end of the window, or in a window that reaches end, lies wholly inside it.
+     */
+    private static MappedByteBuffer window(FileChannel ch, long base, long end) throws IOException {
+        return ch.map(FileChannel.MapMode.READ_ONLY, base, Math.min(MAP_WINDOW, end - base));
+    }
+
+    /**
+     * Checks the record at pos.
+     * @return the position after the record, or -1 if there is no whole, intact record
+     */
+    private static int nextRecord(ByteBuffer data, int pos, CRC32 check) {
+        if (data.limit() - pos < RECORD_HEADER_SIZE) return -1;
+        int length = data.getInt(pos);
+        int sum = data.getInt(pos + 4);
+        int start = pos + RECORD_HEADER_SIZE;
+        if (length <= 0 || length > BUFFER_SIZE - RECORD_HEADER_SIZE || length > data.limit() - start) return -1;
+        byte op = data.get(start);
+        if (op != ADD && op != DELETE && op != BOOK && op != CANCEL && op != RETURN) return -1;
+        ByteBuffer payload = data.duplicate();
+        payload.limit(start + length).position(start);
+        check.reset();
+        check.update(payload);
+        return (int) check.getValue() == sum ? start + length : -1;
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer b, long at) throws IOException {
+        while (b.hasRemaining()) at += ch.write(b, at);
+    }
+
+    /**
+     * Applies every record of the log to the given frontend, in order, without
+     * validating or logging them again.
+     * @param target the frontend to rebuild
+     * @throws IOException if the log cannot be read
+     */
+    void replay(Frontend target) throws IOException {
+        if (end == HEADER_SIZE) return;
+        long base = HEADER_SIZE;
+        ByteBuffer data = window(channel, base, end);
+        long pos = HEADER_SIZE;
+        while (pos < end) {
+            if (pos - base > data.limit() - BUFFER_SIZE && base + data.limit() < end) {
+                base = pos;
+                data = window(channel, base, end);
+            }
+            int at = (int) (pos - base);
+            int length = data.getInt(at);
+            data.position(at + RECORD_HEADER_SIZE);
+            switch (data.get()) {
+                case ADD: {
+                    String plate = getPlate(data);
+                    Date obtained = getDate(data);
+                    Make make = Make.values()[data.get()];
+                    target.applyAdd(plate, obtained, make, data.getInt());
+                    break;
+                }
+                case DELETE:
+                    target.applyDelete(getPlate(data));
+                    break;
+                case BOOK: {
+                    Date begin = getDate(data);
+                    Date bookEnd = getDate(data);
+                    String plate = getPlate(data);
+                    target.applyBook(begin, bookEnd, plate, Employee.values()[data.get()]);
+                    break;
+                }
+                case CANCEL: {
+                    Date begin = getDate(data);
+                    Date bookEnd = getDate(data);
+                    target.applyCancel(begin, bookEnd, getPlate(data));
+                    break;
+                }
+                case RETURN: {
+                    Date bookEnd = getDate(data);
+                    String plate = getPlate(data);
+                    target.applyReturn(bookEnd, plate, data.getInt());
+                    break;
+                }
+                default:
+                    throw new IOException("unknown record at offset " + pos + " of the command log");
+            }
+            pos += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    private static Date getDate(ByteBuffer data) {
+        return Date.ofPacked(data.getInt());
+    }
+
+    private static String getPlate(ByteBuffer data) {
+        byte[] bytes = new byte[data.getShort() & 0xFFFF];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Logs an added vehicle.
+     * @param plate the license plate
+     * @param obtained the date obtained
+     * @param make the make
+     * @param mileage the mileage
+     */
+    synchronized void logAdd(String plate, Date obtained, Make make, int mileage) {
+        byte[] p = plate.getBytes(StandardCharsets.UTF_8);
+        int at = begin(ADD, 2 + p.length + 4 + 1 + 4);
+        putPlate(p);
+        putDate(obtained);
+        buffer.put((byte) make.ordinal());
+        buffer.putInt(mileage);
+        end(at);
+    }
+
+    /**
+     * Logs a removed vehicle.
+     * @param plate the license plate
+     */
+    synchronized void logDelete(String plate) {
+        byte[] p = plate.getBytes(StandardCharsets.UTF_8);
+        int at = begin(DELETE, 2 + p.length);
+        putPlate(p);
+        end(at);
+    }
+
+    /**
+     * Logs a booking.
+     * @param begin the beginning date
+     * @param bookEnd the ending date
+     * @param plate the license plate
+     * @param emp the employee
+     */
+    synchronized void logBook(Date begin, Date bookEnd, String plate, Employee emp) {
+        byte[] p = plate.getBytes(StandardCharsets.UTF_8);
+        int at = begin(BOOK, 4 + 4 + 2 + p.length + 1);
+        putDate(begin);
+        putDate(bookEnd);
+        putPlate(p);
+        buffer.put((byte) emp.ordinal());
+        end(at);
+    }
+
+    /**
+     * Logs a canceled booking.
+     * @param begin the beginning date
+     * @param bookEnd the ending date
+     * @param plate the license plate
+     */
+    synchronized void logCancel(Date begin, Date bookEnd, String plate) {
+        byte[] p = plate.getBytes(StandardCharsets.UTF_8);
+        int at = begin(CANCEL, 4 + 4 + 2 + p.length);
+        putDate(begin);
+        putDate(bookEnd);
+        putPlate(p);
+        end(at);
+    }
+
+    /**
+     * Logs a returned vehicle.
+     * @param bookEnd the ending date of the booking
+     * @param plate the license plate
+     * @param mileage the mileage at return
+     */
+    synchronized void logReturn(Date bookEnd, String plate, int mileage) {
+        byte[] p = plate.getBytes(StandardCharsets.UTF_8);
+        int at = begin(RETURN, 4 + 2 + p.length + 4);
+        putDate(bookEnd);
+        putPlate(p);
+        buffer.putInt(mileage);
+        end(at);
+    }
+
+    /**
+     * Starts a record, writing out the buffer first if the record does not fit.
+     * @return the buffer position of the record
+     */
+    private int begin(byte op, int fields) {
+        int size = RECORD_HEADER_SIZE + 1 + fields;
+        if (size > buffer.capacity()) throw new IllegalArgumentException("command log record too large");
+        if (size > buffer.remaining()) {
+            try {
+                write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        int at = buffer.position();
+        buffer.position(at + RECORD_HEADER_SIZE);
+        buffer.put(op);
+        return at;
+    }
+
+    private void end(int at) {
+        int start = at + RECORD_HEADER_SIZE;
+        int length = buffer.position() - start;
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(start + length).position(start);
+        crc.reset();
+        crc.update(payload);
+        buffer.putInt(at, length);
+        buffer.putInt(at + 4, (int) crc.getValue());
+        records++;
+    }
+
+    private void putPlate(byte[] p) {
+        buffer.putShort((short) p.length);
+        buffer.put(p);
+    }
+
+    private void putDate(Date d) {
+        buffer.putInt(d.toPacked());
+    }
+
+    private void write() throws IOException {
+        if (buffer.position() == 0) return;
+        buffer.flip();
+        long n = buffer.remaining();
+        writeFully(channel, buffer, end);
+        end += n;
+        buffer.clear();
+    }
+
+    /**
+     * Writes out the buffered records and forces them to disk with one force()
+     * call. Does nothing if no record was logged since the last commit.
+     * @throws IOException if the records cannot be written
+     */
+    public void commit() throws IOException {
+        long target;
+        synchronized (this) {
+            write();
+            target = end;
+        }
+        synchronized (forceLock) {
+            if (forced >= target) return;
+            long upTo;
+            synchronized (this) {
+                upTo = end;
+            }
+            channel.force(false);
+            forced = upTo;
+        }
+    }
+
+    /**
+     * Empties the log and starts a new epoch, once a snapshot with that epoch
+     * holds every change logged so far. Buffered records are dropped, since the
+     * snapshot already has them.
+     * @param newEpoch the epoch of the snapshot
+     * @throws IOException if the log cannot be rewritten
+     */
+    public void reset(long newEpoch) throws IOException {
+        synchronized (forceLock) {
+            synchronized (this) {
+                buffer.clear();
+                ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+                h.putInt(MAGIC).putInt(VERSION).putLong(newEpoch).flip();
+                channel.truncate(HEADER_SIZE);
+                writeFully(channel, h, 0);
+                channel.force(true);
+                epoch = newEpoch;
+                end = HEADER_SIZE;
+                records = 0;
+                forced = HEADER_SIZE;
+            }
+        }
+    }
+
+    /**
+     * Gets the epoch stored in the header of the log.
+     * @return the epoch
+     */
+    public synchronized long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Gets the number of records in the log, including uncommitted ones.
+     * @return the record count
+     */
+    public long records() {
+        return records;
+    }
+
+    /**
+     * Commits any buffered records and closes the log.
+     * @throws IOException if the records cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            commit();
+        } finally {
+            channel.close();
+        }
+    }
+}
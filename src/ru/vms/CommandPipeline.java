@@ -0,0 +1,155 @@
+package ru.vms;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Runs a command file in three stages on three threads: a parser splits the
+ * file into lines and tokens, a validator makes the checks that only need the
+ * clock, and the calling thread executes each command on the Frontend, the only
+ * stage that reads or changes the fleet, the reservations and the trips.
+ * <p>
+ * The stages share one preallocated ring of Command slots. Each stage has a
+ * cursor, the number of commands it has finished, and only works on slots
+ * below the cursor of the stage before it; the parser reuses a slot once the
+ * executor has passed it. Every cursor has one writer, so the stages need no
+ * locks, and commands are numbered and executed in input order, so the output
+ * is the same as Frontend.runBatch() gives.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+final class CommandPipeline {
+    private static final int RING_SIZE = 1 << 12;
+
+    private final Frontend frontend;
+    private final DayClock clock;
+    private final MappedCommandFile in;
+    private final Command[] ring = new Command[RING_SIZE];
+    private volatile long parsed;
+    private volatile long validated;
+    private volatile long executed;
+    private volatile boolean stopped;
+    private volatile IOException readFailure;
+
+    private CommandPipeline(Frontend frontend, DayClock clock, MappedCommandFile in) {
+        this.frontend = frontend;
+        this.clock = clock;
+        this.in = in;
+        for (int i = 0; i < RING_SIZE; i++) ring[i] = new Command();
+    }
+
+    /**
+     * Runs the commands of a file through the pipeline into a frontend.
+     * @param frontend the frontend that executes the commands
+     * @param clock the clock the commands are validated against
+     * @param file the command file
+     * @return false if a Q line terminated the system, true at the end of the file
+     * @throws IOException if the file cannot be read
+     */
+    static boolean run(Frontend frontend, DayClock clock, Path file) throws IOException {
+        try (MappedCommandFile in = MappedCommandFile.open(file)) {
+            CommandPipeline p = new CommandPipeline(frontend, clock, in);
+            Thread parser = new Thread(p::parse, "vms-parser");
+            Thread validator = new Thread(p::validate, "vms-validator");
+            parser.setDaemon(true);
+            validator.setDaemon(true);
+            parser.start();
+            validator.start();
+            try {
+                return p.execute();
+            } finally {
+                p.stopped = true;
+                join(parser);
+                join(validator);
+            }
+        }
+    }
+
+    private static void join(Thread t) {
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Command slot(long seq) {
+        return ring[(int) (seq & (RING_SIZE - 1))];
+    }
+
+    /** The parser stage: fills slots with lines until Q or the end of the file. */
+    private void parse() {
+        long seq = 0;
+        try {
+            while (in.nextLine()) {
+                CharSequence chars = in.chars();
+                int from = in.lineStart();
+                int to = in.lineEnd();
+                while (from < to && chars.charAt(from) <= ' ') from++;
+                while (to > from && chars.charAt(to - 1) <= ' ') to--;
+                if (from == to) continue;
+                if (!awaitFree(seq)) return;
+                Command c = slot(seq);
+                c.parse(chars, from, to);
+                c.seq = seq;
+                parsed = ++seq;
+                if (c.kind == Command.Kind.QUIT) return;
+            }
+        } catch (IOException e) {
+            readFailure = e;
+        }
+        if (!awaitFree(seq)) return;
+        Command c = slot(seq);
+        c.parseEnd();
+        c.seq = seq;
+        parsed = seq + 1;
+    }
+
+    private boolean awaitFree(long seq) {
+        for (int spins = 0; seq - executed >= RING_SIZE; spins++) {
+            if (stopped) return false;
+            BackOff.pause(spins);
+        }
+        return true;
+    }
+
+    /** The validator stage: validates each parsed slot until the last one. */
+    private void validate() {
+        for (long seq = 0; ; seq++) {
+            for (int spins = 0; seq >= parsed; spins++) {
+                if (stopped) return;
+                BackOff.pause(spins);
+            }
+            Command c = slot(seq);
+            if (c.kind == Command.Kind.QUIT || c.kind == Command.Kind.END) {
+                validated = seq + 1;
+                return;
+            }
+            try {
+                c.validate(clock);
+            } catch (RuntimeException e) {
+                c.settled = true;
+                c.failure = e;
+            }
+            validated = seq + 1;
+        }
+    }
+
+    /**
+     * The executor stage, on the calling thread. Latencies are measured from the
+     * start of this stage, since parsing and validation overlap with it.
+     */
+    private boolean execute() throws IOException {
+        for (long seq = 0; ; seq++) {
+            for (int spins = 0; seq >= validated; spins++) BackOff.pause(spins);
+            Command c = slot(seq);
+            if (c.kind == Command.Kind.END) {
+                if (readFailure != null) throw readFailure;
+                return true;
+            }
+            c.started = System.nanoTime();
+            if (!frontend.execute(c)) return false;
+            executed = seq + 1;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ru.vms;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the line protocol of the Frontend over a local TCP port or a Unix
+ * domain socket. Each connection is a session with its own Frontend over the
+ * shared state, run on its own thread: a virtual thread when the JVM has them
+ * (Java 21 and later), a platform thread otherwise.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public class CommandServer implements Closeable {
+    private final Frontend frontend;
+    private final ServerSocketChannel channel;
+    private final Path socketFile;
+    private final ExecutorService sessions;
+
+    private CommandServer(Frontend frontend, ServerSocketChannel channel, Path socketFile) {
+        this.frontend = frontend;
+        this.channel = channel;
+        this.socketFile = socketFile;
+        this.sessions = newSessionExecutor();
+    }
+
+    /**
+     * Opens a server for a frontend whose state is already loaded.
+     * @param frontend the frontend holding the shared state
+     * @param address a port number to listen on the loopback address (0 picks a
+     *                free port), or the path of a Unix domain socket
+     * @return the open server, not yet accepting connections
+     * @throws IOException if the address cannot be bound
+     */
+    public static CommandServer open(Frontend frontend, String address) throws IOException {
+        if (!address.isEmpty() && address.chars().allMatch(Character::isDigit)) {
+            ServerSocketChannel ch = ServerSocketChannel.open();
+            ch.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address)));
+            return new CommandServer(frontend, ch, null);
+        }
+        Path file = Paths.get(address);
+        Files.deleteIfExists(file);
+        ServerSocketChannel ch = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        ch.bind(UnixDomainSocketAddress.of(file));
+        return new CommandServer(frontend, ch, file);
+    }
+
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "vms-session");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Gets the address the server listens on.
+     * @return the bound address
+     * @throws IOException if the server is closed
+     */
+    public SocketAddress address() throws IOException {
+        return channel.getLocalAddress();
+    }
+
+    /**
+     * Accepts connections until the server is closed, running each as a session.
+     * @throws IOException if accepting fails for another reason than close()
+     */
+    public void serve() throws IOException {
+        while (true) {
+            SocketChannel client;
+            try {
+                client = channel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            }
+            sessions.execute(() -> session(client));
+        }
+    }
+
+    private void session(SocketChannel client) {
+        try (SocketChannel c = client) {
+            if (c.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+                c.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(c), StandardCharsets.UTF_8));
+            WriterSink out = new WriterSink(new OutputStreamWriter(
+                    Channels.newOutputStream(c), StandardCharsets.UTF_8));
+            frontend.session(out).runSession(in);
+        } catch (IOException | UncheckedIOException e) {
+            // the client went away; its committed changes stay
+        }
+    }
+
+    /**
+     * Stops accepting connections; running sessions finish on their own.
+     * @throws IOException if the socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        sessions.shutdown();
+        if (socketFile != null) Files.deleteIfExists(socketFile);
+    }
+}
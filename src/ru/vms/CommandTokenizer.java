@@ -0,0 +1,65 @@
+package ru.vms;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Splits one command line into whitespace-separated tokens, like StringTokenizer,
+ * but over any range of characters, so batch input can be tokenized in place.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public class CommandTokenizer {
+    private final CharSequence chars;
+    private final int end;
+    private int pos;
+
+    /**
+     * Creates a tokenizer over chars[from, to).
+     * @param chars the characters holding the line
+     * @param from the index of the first character of the line
+     * @param to the index after the last character of the line
+     */
+    public CommandTokenizer(CharSequence chars, int from, int to) {
+        this.chars = chars;
+        this.pos = from;
+        this.end = to;
+    }
+
+    /**
+     * Creates a tokenizer over a whole line.
+     * @param line the command line
+     */
+    public CommandTokenizer(String line) {
+        this(line, 0, line.length());
+    }
+
+    static boolean isDelimiter(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private void skipDelimiters() {
+        while (pos < end && isDelimiter(chars.charAt(pos))) pos++;
+    }
+
+    /**
+     * Checks whether another token is available.
+     * @return true if there is a token left
+     */
+    public boolean hasMoreTokens() {
+        skipDelimiters();
+        return pos < end;
+    }
+
+    /**
+     * Returns the next token.
+     * @return the token
+     * @throws NoSuchElementException if the line has no more tokens
+     */
+    public String nextToken() {
+        skipDelimiters();
+        if (pos >= end) throw new NoSuchElementException();
+        int start = pos;
+        while (pos < end && !isDelimiter(chars.charAt(pos))) pos++;
+        return chars.subSequence(start, pos).toString();
+    }
+}
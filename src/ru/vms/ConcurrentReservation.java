@@ -0,0 +1,374 @@
+package ru.vms;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Reservation book that takes bookings from many threads without a shared lock.
+ * <p>
+ * Each vehicle and each employee has a slot holding an immutable, versioned
+ * schedule of its bookings sorted by beginning date. A booking reads the
+ * vehicle's and the employee's schedules, checks both, and publishes itself
+ * with compare-and-set: first it claims the vehicle slot (same bookings, next
+ * version, marked claimed), then it adds itself to the employee slot, and
+ * finally it stores the vehicle schedule with the booking and the claim
+ * released. A CAS that fails means another thread changed the slot since it
+ * was read, so the booking re-reads and re-checks; it never publishes against
+ * a schedule it did not check, so no vehicle or employee is double-booked.
+ * <p>
+ * The claim works as a short lock on one vehicle: a claimed slot is only ever
+ * changed by the claiming thread, which holds it for two CAS steps and never
+ * waits on anything else, and other threads wait for the claim to clear with
+ * BackOff rather than report a conflict that may still go away. So the path is
+ * not lock-free; a thread stalled while holding a claim holds up that vehicle,
+ * but no other. Employee slots are never claimed.
+ * <p>
+ * The vehicle slots belong to this book, found by plate in an insert-only
+ * table, so the same Vehicle objects may be shared by several books. A vehicle
+ * gets its slot the first time it is booked; the table is only written under
+ * the book's monitor, one new plate at a time, and read without locking.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public class ConcurrentReservation {
+    /**
+     * The result of a booking attempt, in the order the Frontend checks them.
+     */
+    public enum Outcome { BOOKED, VEHICLE_UNAVAILABLE, EMPLOYEE_CONFLICT }
+
+    /**
+     * An immutable schedule: bookings of one owner sorted by beginning date, the
+     * number of times the slot has been published, and whether it is claimed.
+     */
+    private static final class Schedule {
+        static final Schedule EMPTY = new Schedule(new Booking[0], 0, false);
+
+        private final Booking[] items;
+        private final int version;
+        private final boolean claimed;
+
+        private Schedule(Booking[] items, int version, boolean claimed) {
+            this.items = items;
+            this.version = version;
+            this.claimed = claimed;
+        }
+
+        private int upperBound(Date d) {
+            int lo = 0, hi = items.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (items[mid].getBegin().compareTo(d) <= 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        boolean overlaps(Date begin, Date end) {
+            int i = upperBound(end) - 1;
+            return i >= 0 && items[i].getEnd().compareTo(begin) >= 0;
+        }
+
+        int indexOf(Date begin, Date end) {
+            for (int i = upperBound(begin) - 1; i >= 0; i--) {
+                if (items[i].getBegin().compareTo(begin) != 0) break;
+                if (items[i].getEnd().equals(end)) return i;
+            }
+            return -1;
+        }
+
+        Schedule claim() {
+            return new Schedule(items, version + 1, true);
+        }
+
+        Schedule release() {
+            return new Schedule(items, version + 1, false);
+        }
+
+        Schedule with(Booking b) {
+            int at = upperBound(b.getBegin());
+            Booking[] n = new Booking[items.length + 1];
+            System.arraycopy(items, 0, n, 0, at);
+            n[at] = b;
+            System.arraycopy(items, at, n, at + 1, items.length - at);
+            return new Schedule(n, version + 1, false);
+        }
+
+        Schedule without(Booking b) {
+            int at = -1;
+            for (int i = 0; i < items.length; i++) {
+                if (items[i] == b) { at = i; break; }
+            }
+            if (at < 0) return new Schedule(items, version + 1, false);
+            Booking[] n = new Booking[items.length - 1];
+            System.arraycopy(items, 0, n, 0, at);
+            System.arraycopy(items, at + 1, n, at, items.length - at - 1);
+            return new Schedule(n, version + 1, false);
+        }
+
+        /**
+         * Gets the number of times the slot holding this schedule was published.
+         * @return the version
+         */
+        int version() {
+            return version;
+        }
+    }
+
+    /** The schedule of one vehicle; replaced by compare-and-set. */
+    private static final class VehicleSlot {
+        volatile Schedule schedule = Schedule.EMPTY;
+    }
+
+    private static final AtomicReferenceFieldUpdater<VehicleSlot, Schedule> VEHICLE_SLOT =
+            AtomicReferenceFieldUpdater.newUpdater(VehicleSlot.class, Schedule.class, "schedule");
+
+    /**
+     * Open-addressing table from plate to vehicle slot, with linear probing and
+     * no removal. The slot is stored before the plate, so a reader that finds the
+     * plate also sees its slot. A full table is copied into a larger one, which
+     * is then published; slots are shared by both, so nothing is lost.
+     */
+    private static final class SlotTable {
+        final AtomicReferenceArray<String> plates;
+        final AtomicReferenceArray<VehicleSlot> slots;
+        int size;
+
+        SlotTable(int capacity) {
+            this.plates = new AtomicReferenceArray<>(capacity);
+            this.slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        private int probe(String plate) {
+            int mask = plates.length() - 1;
+            int h = plate.hashCode() * 0x9E3779B9;
+            int i = (h ^ (h >>> 16)) & mask;
+            String p;
+            while ((p = plates.get(i)) != null && !p.equals(plate)) i = (i + 1) & mask;
+            return i;
+        }
+
+        VehicleSlot get(String plate) {
+            int i = probe(plate);
+            return plates.get(i) == null ? null : slots.get(i);
+        }
+
+        void put(String plate, VehicleSlot slot) {
+            int i = probe(plate);
+            slots.set(i, slot);
+            plates.set(i, plate);
+            size++;
+        }
+
+        SlotTable grow() {
+            SlotTable t = new SlotTable(plates.length() * 2);
+            for (int i = 0; i < plates.length(); i++) {
+                String p = plates.get(i);
+                if (p != null) t.put(p, slots.get(i));
+            }
+            return t;
+        }
+    }
+
+    private volatile SlotTable vehicles = new SlotTable(16);
+    private final AtomicReferenceArray<Schedule> employees;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     * Creates an empty reservation book.
+     */
+    public ConcurrentReservation() {
+        this.employees = new AtomicReferenceArray<>(Employee.values().length);
+        for (int i = 0; i < employees.length(); i++) employees.set(i, Schedule.EMPTY);
+    }
+
+    /**
+     * Gets a vehicle's slot, giving it one if it has none yet.
+     */
+    private VehicleSlot slot(Vehicle v) {
+        VehicleSlot s = vehicles.get(v.getPlate());
+        return s != null ? s : register(v.getPlate());
+    }
+
+    private synchronized VehicleSlot register(String plate) {
+        SlotTable t = vehicles;
+        VehicleSlot s = t.get(plate);
+        if (s != null) return s;
+        s = new VehicleSlot();
+        if (2 * (t.size + 1) > t.plates.length()) {
+            t = t.grow();
+            t.put(plate, s);
+            vehicles = t;
+        } else {
+            t.put(plate, s);
+        }
+        return s;
+    }
+
+    /**
+     * Reads a slot's schedule, waiting while another thread has it claimed.
+     */
+    private static Schedule stableSchedule(VehicleSlot s) {
+        Schedule c = s.schedule;
+        for (int spins = 0; c.claimed; spins++) {
+            BackOff.pause(spins);
+            c = s.schedule;
+        }
+        return c;
+    }
+
+    /**
+     * Reads a vehicle's schedule without giving it a slot; a vehicle that was
+     * never booked here has the empty schedule.
+     */
+    private Schedule scheduleOf(Vehicle v) {
+        VehicleSlot s = vehicles.get(v.getPlate());
+        return s == null ? Schedule.EMPTY : stableSchedule(s);
+    }
+
+    private boolean claim(VehicleSlot v, Schedule seen, Schedule claimed) {
+        if (VEHICLE_SLOT.compareAndSet(v, seen, claimed)) return true;
+        retries.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Books a vehicle for an employee if the vehicle is free and the employee has
+     * no overlapping booking, checked and published atomically.
+     * @param b the booking to add
+     * @return BOOKED, or the first check that failed
+     */
+    public Outcome book(Booking b) {
+        VehicleSlot v = slot(b.getVehicle());
+        int e = b.getEmployee().ordinal();
+        while (true) {
+            Schedule vc = stableSchedule(v);
+            if (vc.overlaps(b.getBegin(), b.getEnd())) return Outcome.VEHICLE_UNAVAILABLE;
+            Schedule ec = employees.get(e);
+            if (ec.overlaps(b.getBegin(), b.getEnd())) return Outcome.EMPLOYEE_CONFLICT;
+            Schedule claimed = vc.claim();
+            if (!claim(v, vc, claimed)) continue;
+            while (!employees.compareAndSet(e, ec, ec.with(b))) {
+                retries.incrementAndGet();
+                ec = employees.get(e);
+                if (ec.overlaps(b.getBegin(), b.getEnd())) {
+                    v.schedule = claimed.release();
+                    return Outcome.EMPLOYEE_CONFLICT;
+                }
+            }
+            v.schedule = claimed.with(b);
+            size.incrementAndGet();
+            return Outcome.BOOKED;
+        }
+    }
+
+    /**
+     * Removes the booking of a vehicle with the given dates, if present.
+     * @param vehicle the vehicle
+     * @param begin the beginning date
+     * @param end the ending date
+     * @return the removed booking, or null if there is none
+     */
+    public Booking cancel(Vehicle vehicle, Date begin, Date end) {
+        VehicleSlot v = vehicles.get(vehicle.getPlate());
+        if (v == null) return null;
+        while (true) {
+            Schedule vc = stableSchedule(v);
+            int i = vc.indexOf(begin, end);
+            if (i < 0) return null;
+            Booking found = vc.items[i];
+            Schedule claimed = vc.claim();
+            if (!claim(v, vc, claimed)) continue;
+            int e = found.getEmployee().ordinal();
+            while (true) {
+                Schedule ec = employees.get(e);
+                if (employees.compareAndSet(e, ec, ec.without(found))) break;
+                retries.incrementAndGet();
+            }
+            v.schedule = claimed.without(found);
+            size.decrementAndGet();
+            return found;
+        }
+    }
+
+    /**
+     * Checks whether a vehicle is free for every day of the inclusive range [begin, end].
+     * @param v the vehicle
+     * @param begin the beginning date of the range
+     * @param end the ending date of the range
+     * @return true if none of the vehicle's bookings overlaps the range
+     */
+    public boolean isVehicleAvailable(Vehicle v, Date begin, Date end) {
+        return !scheduleOf(v).overlaps(begin, end);
+    }
+
+    /**
+     * Checks whether an employee has a booking overlapping the inclusive range [begin, end].
+     * @param emp the employee
+     * @param begin the beginning date of the range
+     * @param end the ending date of the range
+     * @return true if one of the employee's bookings overlaps the range
+     */
+    public boolean hasEmployeeConflict(Employee emp, Date begin, Date end) {
+        return employees.get(emp.ordinal()).overlaps(begin, end);
+    }
+
+    /**
+     * Finds the booking of a vehicle with the given dates.
+     * @param v the vehicle
+     * @param begin the beginning date
+     * @param end the ending date
+     * @return the booking, or null if there is none
+     */
+    public Booking find(Vehicle v, Date begin, Date end) {
+        Schedule vc = scheduleOf(v);
+        int i = vc.indexOf(begin, end);
+        return i < 0 ? null : vc.items[i];
+    }
+
+    /**
+     * Gets a copy of a vehicle's bookings in beginning date order.
+     * @param v the vehicle
+     * @return the bookings
+     */
+    public Booking[] bookings(Vehicle v) {
+        return scheduleOf(v).items.clone();
+    }
+
+    /**
+     * Gets a copy of an employee's bookings in beginning date order.
+     * @param emp the employee
+     * @return the bookings
+     */
+    public Booking[] bookings(Employee emp) {
+        return employees.get(emp.ordinal()).items.clone();
+    }
+
+    /**
+     * Gets the number of times a vehicle's slot has been published.
+     * @param v the vehicle
+     * @return the slot version
+     */
+    public int version(Vehicle v) {
+        VehicleSlot s = vehicles.get(v.getPlate());
+        return s == null ? 0 : s.schedule.version();
+    }
+
+    /**
+     * Gets the number of bookings.
+     * @return the size
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Gets the number of failed CAS attempts so far, a measure of contention.
+     * @return the retry count
+     */
+    public long retries() {
+        return retries.get();
+    }
+}
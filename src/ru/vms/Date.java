@@ -10,37 +10,117 @@ import java.util.Calendar;
  * @author Reeham Anwar
  */
 public class Date implements Comparable<Date>{
-    private int year;
-    private int day;
-    private int month;
+    private final int packed;
 
     public static final int FOUR_YEAR_CYCLE = 4;
     public static final int HUNDRED_YEARS_EXCEPTION = 100;
     public static final int FOUR_HUNDRED_YEARS_RULE = 400;
 
+    private static final int INVALID = -1;
+    private static final int MAX_COMPONENT = 99;
+    private static final int MAX_YEAR = Integer.MAX_VALUE / 10000 - 1;
+    private static final int MAX_DIGITS = 9;
+    private static final int CACHE_FIRST_YEAR = 2000;
+    private static final int CACHE_YEARS = 100;
+    private static final int CACHE_DAYS_PER_YEAR = 12 * 31;
+    private static final Date[] CACHE = new Date[CACHE_YEARS * CACHE_DAYS_PER_YEAR];
+
     /**
      * Constructs a date with month/day/year components.
+     * The components are packed into one int as yyyymmdd, so ordering dates is a
+     * single int compare. Components that do not fit (negative, or a month or day
+     * above 99) make a date that is never valid.
      * @param month the month (1–12)
      * @param day   the day of month
      * @param year  the year (> 0)
      */
     public Date(int month, int day, int year){
-        this.year = year;
-        this.day = day;
-        this.month = month;
+        this.packed = pack(month, day, year);
+    }
+
+    private static int pack(int month, int day, int year) {
+        if (month < 0 || month > MAX_COMPONENT || day < 0 || day > MAX_COMPONENT
+                || year < 0 || year > MAX_YEAR) {
+            return INVALID;
+        }
+        return year * 10000 + month * 100 + day;
+    }
+
+    /**
+     * Gets a date for the given components, reusing a shared instance for valid
+     * dates between 2000 and 2099 so repeated dates do not allocate.
+     * @param month the month (1–12)
+     * @param day   the day of month
+     * @param year  the year (> 0)
+     * @return a Date with the given components
+     */
+    public static Date valueOf(int month, int day, int year) {
+        int y = year - CACHE_FIRST_YEAR;
+        if (y < 0 || y >= CACHE_YEARS || month < 1 || month > 12 || day < 1 || day > daysInMonth(month, year)) {
+            return new Date(month, day, year);
+        }
+        int i = y * CACHE_DAYS_PER_YEAR + (month - 1) * 31 + (day - 1);
+        Date d = CACHE[i];
+        if (d == null) {
+            d = new Date(month, day, year);
+            CACHE[i] = d;
+        }
+        return d;
+    }
+
+    /**
+     * Gets the date for a packed yyyymmdd value, as stored by toPacked().
+     * @param packed the packed date
+     * @return the matching date
+     */
+    static Date ofPacked(int packed) {
+        return valueOf(packed / 100 % 100, packed % 100, packed / 10000);
+    }
+
+    /**
+     * Gets this date packed as yyyymmdd, for the binary log and snapshot formats.
+     * @return the packed date
+     */
+    int toPacked() {
+        return packed;
     }
 
     /**
      * Parses a mm/dd/yyyy string into a Date.
      * @param mmddyyyy the date string to parse
-     * @return a Date instance from the parsed components
+     * @return a Date instance from the parsed components, or null if the text is not
+     *         three slash-separated numbers
      */
     public static Date fromString(String mmddyyyy) {
-        String[] parts = mmddyyyy.split("/");
-        int m = Integer.parseInt(parts[0]);
-        int d = Integer.parseInt(parts[1]);
-        int y = Integer.parseInt(parts[2]);
-        return new Date(m, d, y);
+        return parse(mmddyyyy, 0, mmddyyyy.length());
+    }
+
+    /**
+     * Parses m/d/yyyy from a range of characters without creating substrings.
+     * @param s the characters to read
+     * @param from the index of the first character
+     * @param to the index after the last character
+     * @return the parsed Date, or null if the range is not three slash-separated numbers
+     */
+    public static Date parse(CharSequence s, int from, int to) {
+        int month = 0, day = 0, value = 0, digits = 0, field = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_DIGITS) return null;
+                value = value * 10 + (c - '0');
+            } else if (c == '/' && digits > 0 && field < 2) {
+                if (field == 0) month = value;
+                else day = value;
+                field++;
+                value = 0;
+                digits = 0;
+            } else {
+                return null;
+            }
+        }
+        if (field != 2 || digits == 0) return null;
+        return valueOf(month, day, value);
     }
 
     /**
@@ -48,6 +128,8 @@ public class Date implements Comparable<Date>{
      * @return true if valid, false otherwise
      */
     public boolean isValid() {
+        if (packed == INVALID) return false;
+        int year = getYear(), month = getMonth(), day = getDay();
         if (year <= 0) return false;
         if (month < 1 || month > 12) return false;
         int maxDay = daysInMonth(month, year);
@@ -76,6 +158,49 @@ public class Date implements Comparable<Date>{
         }
     }
 
+    /**
+     * Gets the number of days since 1/1/1970 for this date, which must be valid.
+     * @return the epoch day
+     */
+    public int toEpochDay() {
+        int y = getYear(), m = getMonth(), d = getDay();
+        if (m <= 2) y--;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5 + d - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    /**
+     * Gets the date for a number of days since 1/1/1970.
+     * @param epochDay the epoch day
+     * @return the matching date
+     */
+    public static Date ofEpochDay(int epochDay) {
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = z - era * 146097;
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int d = doy - (153 * mp + 2) / 5 + 1;
+        int m = mp < 10 ? mp + 3 : mp - 9;
+        return valueOf(m, d, yoe + era * 400 + (m <= 2 ? 1 : 0));
+    }
+
+    /**
+     * Adds calendar months to this date, which must be valid. Like Calendar.add,
+     * the day is clamped to the length of the resulting month.
+     * @param months the number of months to add
+     * @return the resulting date
+     */
+    public Date plusMonths(int months) {
+        int total = getYear() * 12 + (getMonth() - 1) + months;
+        int y = total / 12, m = total % 12 + 1;
+        return valueOf(m, Math.min(getDay(), daysInMonth(m, y)), y);
+    }
+
     /**
      * Determines whether a year is a leap year.
      * @param y the year to check
@@ -93,18 +218,13 @@ public class Date implements Comparable<Date>{
 
     /**
      * Compares this date to another by year, then month, then day.
+     * The packed yyyymmdd form orders the same way, so this is one int compare.
      * @param o the other date
      * @return a negative, zero, or positive value per the Comparable
      */
     @Override
     public int compareTo(Date o) {
-        if (this.year != o.year) {
-            return this.year - o.year;
-        }
-        if (this.month != o.month) {
-            return this.month - o.month;
-        }
-        return this.day - o.day;
+        return Integer.compare(this.packed, o.packed);
     }
 
     /**
@@ -118,8 +238,16 @@ public class Date implements Comparable<Date>{
         if (!(obj instanceof Date)) {
             return false;
         }
-        Date d = (Date) obj;
-        return this.year == d.year && this.month == d.month && this.day == d.day;
+        return this.packed == ((Date) obj).packed;
+    }
+
+    /**
+     * Returns a hash code consistent with equals.
+     * @return the packed yyyymmdd value
+     */
+    @Override
+    public int hashCode() {
+        return packed;
     }
 
     /**
@@ -128,7 +256,7 @@ public class Date implements Comparable<Date>{
      */
     @Override
     public String toString() {
-        return month + "/" + day + "/" + year;
+        return getMonth() + "/" + getDay() + "/" + getYear();
     }
 
     /**
@@ -136,7 +264,7 @@ public class Date implements Comparable<Date>{
      * @return the year
      */
     public int getYear() {
-        return year;
+        return packed / 10000;
     }
 
     /**
@@ -144,7 +272,7 @@ public class Date implements Comparable<Date>{
      * @return the month
      */
     public int getMonth() {
-        return month;
+        return packed / 100 % 100;
     }
 
     /**
@@ -152,7 +280,7 @@ public class Date implements Comparable<Date>{
      * @return the day
      */
     public int getDay() {
-        return day;
+        return packed % 100;
     }
 
     public static void main(String[] args) {
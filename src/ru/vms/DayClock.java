@@ -0,0 +1,145 @@
+package ru.vms;
+
+import java.util.TimeZone;
+
+/**
+ * Day-resolution clock used by Frontend to validate dates.
+ * "Today" and the 3-month booking limit are kept as epoch days and recomputed
+ * only when the local date changes (or on tick), so checks are int compares.
+ * A fixed clock pins the date for tests and replays. The clock may be shared by
+ * the sessions of the command server: a tick is made by one thread at a time,
+ * and today and its limit are published together as one immutable Day, so a
+ * reader sees either the old day and its limit or the new day and its limit.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public class DayClock {
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final int BOOKING_MONTHS = 3;
+
+    private final boolean fixed;
+    private final TimeZone zone;
+    private volatile Day day;
+    private volatile long nextTickMillis;
+
+    private DayClock(boolean fixed, int today) {
+        this.fixed = fixed;
+        this.zone = TimeZone.getDefault();
+        setToday(today);
+    }
+
+    /**
+     * Creates a clock that follows the system time in the default time zone.
+     * @return the system clock
+     */
+    public static DayClock system() {
+        DayClock c = new DayClock(false, 0);
+        c.tick();
+        return c;
+    }
+
+    /**
+     * Creates a clock pinned to the given date.
+     * @param today the date to use as today
+     * @return the fixed clock
+     */
+    public static DayClock fixed(Date today) {
+        if (today == null || !today.isValid()) {
+            throw new IllegalArgumentException(today + " - invalid calendar date.");
+        }
+        return new DayClock(true, today.toEpochDay());
+    }
+
+    /**
+     * Today and the booking limit that goes with it, as epoch days.
+     */
+    static final class Day {
+        final int today;
+        final int limit;
+
+        private Day(int today) {
+            this.today = today;
+            this.limit = Date.ofEpochDay(today).plusMonths(BOOKING_MONTHS).toEpochDay();
+        }
+
+        /**
+         * Checks whether a valid date falls before this day.
+         * @param d the date to check
+         * @return true if d is before today
+         */
+        boolean isBeforeToday(Date d) {
+            return d.toEpochDay() < today;
+        }
+
+        /**
+         * Checks whether a valid date is no later than 3 months from this day.
+         * @param d the date to check
+         * @return true if d is on or before the booking limit
+         */
+        boolean withinThreeMonths(Date d) {
+            return d.toEpochDay() <= limit;
+        }
+    }
+
+    private void setToday(int epochDay) {
+        this.day = new Day(epochDay);
+    }
+
+    /**
+     * Re-reads the system time; a fixed clock keeps its date.
+     */
+    public synchronized void tick() {
+        if (fixed) return;
+        long now = System.currentTimeMillis();
+        setToday((int) Math.floorDiv(now + zone.getOffset(now), MILLIS_PER_DAY));
+        long midnight = (day.today + 1) * MILLIS_PER_DAY;
+        nextTickMillis = midnight - zone.getOffset(midnight - zone.getOffset(now));
+    }
+
+    private void refresh() {
+        if (!fixed && System.currentTimeMillis() >= nextTickMillis) tick();
+    }
+
+    /**
+     * Gets today and its booking limit, read together, for checks that use both.
+     * @return the current day
+     */
+    Day day() {
+        refresh();
+        return day;
+    }
+
+    /**
+     * Gets today as an epoch day.
+     * @return today's epoch day
+     */
+    public int today() {
+        return day().today;
+    }
+
+    /**
+     * Gets the last day a booking may begin on, 3 months from today.
+     * @return the epoch day of the booking limit
+     */
+    public int bookingLimit() {
+        return day().limit;
+    }
+
+    /**
+     * Checks whether a valid date falls before today.
+     * @param d the date to check
+     * @return true if d is before today
+     */
+    public boolean isBeforeToday(Date d) {
+        return day().isBeforeToday(d);
+    }
+
+    /**
+     * Checks whether a valid date is no later than 3 months from today.
+     * @param d the date to check
+     * @return true if d is on or before the booking limit
+     */
+    public boolean withinThreeMonths(Date d) {
+        return day().withinThreeMonths(d);
+    }
+}
@@ -0,0 +1,120 @@
+package ru.vms;
+
+/**
+ * Indexed binary min-heap of booking ids keyed on the ending epoch day.
+ * The heap remembers the position of each id, so any booking can be removed
+ * in O(log n) and not just the top.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+class EndingHeap {
+    private static final int CAPACITY = 4;
+
+    private int[] ends;
+    private int[] ids;
+    /** Heap position of each id. */
+    private int[] positions;
+    private int size;
+
+    /**
+     * Creates an empty heap.
+     */
+    EndingHeap() {
+        this.ends = new int[CAPACITY];
+        this.ids = new int[CAPACITY];
+        this.positions = new int[CAPACITY];
+        this.size = 0;
+    }
+
+    private void place(int end, int id, int i) {
+        ends[i] = end;
+        ids[i] = id;
+        positions[id] = i;
+    }
+
+    private void siftUp(int i) {
+        int end = ends[i];
+        int id = ids[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (ends[parent] <= end) break;
+            place(ends[parent], ids[parent], i);
+            i = parent;
+        }
+        place(end, id, i);
+    }
+
+    private void siftDown(int i) {
+        int end = ends[i];
+        int id = ids[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && ends[child + 1] < ends[child]) child++;
+            if (ends[child] >= end) break;
+            place(ends[child], ids[child], i);
+            i = child;
+        }
+        place(end, id, i);
+    }
+
+    /**
+     * Adds a booking to the heap. Ids are rows of the owning Reservation, so an
+     * id is below the number of bookings once it is added.
+     * @param end the booking's ending epoch day
+     * @param id the booking's id
+     */
+    void add(int end, int id) {
+        if (size == ends.length) {
+            int cap = ends.length * 2;
+            int[] e = new int[cap];
+            int[] n = new int[cap];
+            System.arraycopy(ends, 0, e, 0, size);
+            System.arraycopy(ids, 0, n, 0, size);
+            ends = e;
+            ids = n;
+        }
+        if (id >= positions.length) {
+            int[] p = new int[Math.max(positions.length * 2, id + 1)];
+            System.arraycopy(positions, 0, p, 0, positions.length);
+            positions = p;
+        }
+        ends[size] = end;
+        ids[size] = id;
+        siftUp(size++);
+    }
+
+    /**
+     * Removes the booking with the given id, which must currently be in this heap.
+     * @param id the booking's id
+     */
+    void remove(int id) {
+        int i = positions[id];
+        size--;
+        if (i == size) return;
+        ends[i] = ends[size];
+        ids[i] = ids[size];
+        int moved = ids[i];
+        siftDown(i);
+        if (ids[i] == moved) siftUp(i);
+    }
+
+    /**
+     * Records that a booking in the heap has moved to another id.
+     * @param from the booking's old id
+     * @param to the booking's new id
+     */
+    void renumber(int from, int to) {
+        int i = positions[from];
+        ids[i] = to;
+        positions[to] = i;
+    }
+
+    /**
+     * Gets the id of the booking with the earliest ending date.
+     * @return the top id, or -1 if the heap is empty
+     */
+    int peek() {
+        return size == 0 ? -1 : ids[0];
+    }
+}
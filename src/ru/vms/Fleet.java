@@ -1,7 +1,13 @@
 package ru.vms;
 
+import java.util.function.Consumer;
+
 /**
  * Holds vehicles in a resizable array; prints sorted by make then obtained date.
+ * A plate index maps each license plate to its array slot, so lookups and removes
+ * do not scan the array, and a sorted view keeps the report order up to date.
+ * A sorted view per make indexes the vehicles of each make in the same order,
+ * so a search for a free vehicle of a make does not walk the other makes.
  * @author Reeham Anwar
  * @author Simeon Thomas
  */
@@ -11,6 +17,9 @@ public class Fleet {
 
     private Vehicle[] fleet;
     private int size;
+    private final PlateIndex index;
+    private final SortedView<Vehicle> byMake;
+    private final SortedView<Vehicle>[] ofMake;
 
     /**
      * Creates an empty fleet with initial capacity of 4.
@@ -18,32 +27,54 @@ public class Fleet {
     public Fleet() {
         this.fleet = new Vehicle[CAPACITY];
         this.size = 0;
+        this.index = new PlateIndex();
+        this.byMake = new SortedView<>(Fleet::compareForReport);
+        @SuppressWarnings("unchecked")
+        SortedView<Vehicle>[] views = (SortedView<Vehicle>[]) new SortedView<?>[Make.values().length];
+        for (int i = 0; i < views.length; i++) views[i] = new SortedView<>(Fleet::compareForReport);
+        this.ofMake = views;
+    }
+
+    static int compareForReport(Vehicle a, Vehicle b) {
+        int cmp = a.compareTo(b);
+        return cmp != 0 ? cmp : a.getPlate().compareTo(b.getPlate());
     }
 
     private int find(Vehicle v) {
-        for (int i = 0; i < size; i++) {
-            if (fleet[i].equals(v)) {
-                return i;
-            }
-        }
-        return NOT_FOUND;
+        int idx = index.get(v.getPlate());
+        return idx == PlateIndex.NOT_FOUND ? NOT_FOUND : idx;
     }
 
     private void grow() {
-        Vehicle[] n = new Vehicle[fleet.length + CAPACITY];
+        Vehicle[] n = new Vehicle[fleet.length * 2];
         for (int i = 0; i < size; i++) {
             n[i] = fleet[i];
         }
         fleet = n;
     }
 
+    /**
+     * Makes room for at least the given number of vehicles, so a bulk load
+     * does not grow the array step by step.
+     * @param n the number of vehicles
+     */
+    void ensureCapacity(int n) {
+        if (n <= fleet.length) return;
+        Vehicle[] a = new Vehicle[n];
+        System.arraycopy(fleet, 0, a, 0, size);
+        fleet = a;
+    }
+
     /**
      * Adds a vehicle to the end of the list, growing capacity as needed.
      * @param v the vehicle to add
      */
     public void add(Vehicle v) {
         if (size == fleet.length) grow();
+        index.put(v.getPlate(), size);
         fleet[size++] = v;
+        byMake.add(v);
+        ofMake[v.getMake().ordinal()].add(v);
     }
 
     /**
@@ -53,7 +84,11 @@ public class Fleet {
     public void remove(Vehicle v) {
         int idx = find(v);
         if (idx == NOT_FOUND) return;
+        byMake.remove(fleet[idx]);
+        ofMake[fleet[idx].getMake().ordinal()].remove(fleet[idx]);
         fleet[idx] = fleet[size - 1];
+        index.put(fleet[idx].getPlate(), idx);
+        index.remove(v.getPlate());
         fleet[size - 1] = null;
         size--;
     }
@@ -73,34 +108,95 @@ public class Fleet {
      * @return the matching vehicle, or null if none exists
      */
     public Vehicle getByPlate(String plate) {
-        for (int i = 0; i < size; i++) {
-            if (fleet[i].getPlate().equals(plate)) return fleet[i];
+        int idx = index.get(plate);
+        return idx == PlateIndex.NOT_FOUND ? null : fleet[idx];
+    }
+
+    /**
+     * Gets the number of vehicles in the fleet.
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Passes every vehicle to the action in report order (make, date obtained, plate).
+     * @param action the action to perform
+     */
+    void forEachByMake(Consumer<? super Vehicle> action) {
+        for (SortedView.Node<Vehicle> n = byMake.first(); n != null; n = n.next()) {
+            action.accept(n.value());
         }
-        return null;
     }
 
     /**
-     * Prints the fleet ordered by make, then by date obtained.
-     * Uses in-place insertion sort and prints the formatted list or a message if empty.
+     * Gets the first vehicle of a make in report order; walk on with next().
+     * @param make the make
+     * @return the node of the vehicle, or null if the fleet has none of the make
      */
-    public void printByMake() {
+    SortedView.Node<Vehicle> firstOfMake(Make make) {
+        return ofMake[make.ordinal()].first();
+    }
+
+    /**
+     * Gets the number of vehicles of a make.
+     * @param make the make
+     * @return the count
+     */
+    int sizeOfMake(Make make) {
+        return ofMake[make.ordinal()].size();
+    }
+
+    /**
+     * Prints the fleet ordered by make, then by date obtained (then by plate).
+     * Walks the sorted view and prints the formatted list or a message if empty.
+     * @param out the sink to print to
+     */
+    public void printByMake(OutputSink out) {
         if (size == 0) {
-            System.out.println("There is no vehicle in the fleet.");
+            out.println("There is no vehicle in the fleet.");
             return;
         }
-        for (int i = 1; i < size; i++) {
-            Vehicle key = fleet[i];
-            int j = i - 1;
-            while (j >= 0 && fleet[j].compareTo(key) > 0) {
-                fleet[j + 1] = fleet[j];
-                j--;
-            }
-            fleet[j + 1] = key;
+        out.println("*List of vehicles in the fleet, ordered by make and date obtained.");
+        for (SortedView.Node<Vehicle> n = byMake.first(); n != null; n = n.next()) {
+            out.println(n.value());
         }
-        System.out.println("*List of vehicles in the fleet, ordered by make and date obtained.");
-        for (int i = 0; i < size; i++) {
-            System.out.println(fleet[i]);
+        out.println("*end of list.");
+    }
+
+    /**
+     * Prints several fleets with disjoint plates as one, in the order of
+     * printByMake(), by merging their sorted views.
+     * @param out the sink to print to
+     * @param parts the fleets
+     */
+    static void printByMake(OutputSink out, Fleet[] parts) {
+        if (parts.length == 1) {
+            parts[0].printByMake(out);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        SortedView.Node<Vehicle>[] at = (SortedView.Node<Vehicle>[]) new SortedView.Node<?>[parts.length];
+        int total = 0;
+        for (int i = 0; i < parts.length; i++) {
+            total += parts[i].size;
+            at[i] = parts[i].byMake.first();
+        }
+        if (total == 0) {
+            out.println("There is no vehicle in the fleet.");
+            return;
+        }
+        out.println("*List of vehicles in the fleet, ordered by make and date obtained.");
+        while (true) {
+            int min = -1;
+            for (int i = 0; i < at.length; i++) {
+                if (at[i] != null && (min < 0 || compareForReport(at[i].value(), at[min].value()) < 0)) min = i;
+            }
+            if (min < 0) break;
+            out.println(at[min].value());
+            at[min] = at[min].next();
         }
-        System.out.println("*end of list.");
+        out.println("*end of list.");
     }
 }
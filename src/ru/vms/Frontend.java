@@ -1,352 +1,782 @@
 package ru.vms;
 
-import java.util.Calendar;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Scanner;
-import java.util.StringTokenizer;
+import java.util.concurrent.locks.Lock;
 
 /**
  * The Frontend class provides the command-line interface for the Vehicle
  * Management System. It reads user commands, validates input in the required
  * left-to-right order, and coordinates actions between the Fleet, Reservation,
  * and TripList classes.
+ * <p>
+ * Several frontends can share one state, one per client session of the command
+ * server; the state is guarded by striped locks (see StripedLocks), so commands
+ * on different vehicles run in parallel and each response is the one a serial
+ * run in some order of the commands would give.
+ * <p>
+ * A frontend can also be one shard of a ShardedEngine, holding only the vehicles
+ * whose plates hash to it; then the rules that span shards, the employee
+ * conflict and the return order, are checked through the engine.
  * @author Reeham Anwar
  * @author Simeon Thomas
  */
 public class Frontend {
-    private final Fleet fleet = new Fleet();
-    private final Reservation reservations = new Reservation();
-    private final TripList trips = new TripList();
+    private final Fleet fleet;
+    private final Reservation reservations;
+    private final TripList trips;
+    private final StripedLocks locks;
+    private final DayClock clock;
+    private final OutputSink out;
+    private CommandLog log;
+    private Path snapshot;
+    private long snapshotEvery;
+    private long snapshotEpoch;
+    private final ShardedEngine.Shard shard;
+    private final Metrics metrics;
+    private final Command command = new Command();
+
+    /**
+     * Creates a frontend that validates dates against the system clock.
+     */
+    public Frontend() {
+        this(DayClock.system());
+    }
+
+    /**
+     * Creates a frontend that validates dates against the given clock.
+     * @param clock the clock that defines today
+     */
+    public Frontend(DayClock clock) {
+        this(clock, WriterSink.stdout());
+    }
+
+    /**
+     * Creates a frontend with the given clock and output sink.
+     * @param clock the clock that defines today
+     * @param out the sink that receives every response and report
+     */
+    public Frontend(DayClock clock, OutputSink out) {
+        this.fleet = new Fleet();
+        this.reservations = new Reservation();
+        this.trips = new TripList();
+        this.locks = new StripedLocks();
+        this.clock = clock;
+        this.out = out;
+        this.shard = null;
+        this.metrics = new Metrics();
+    }
+
+    /**
+     * Creates one shard of a ShardedEngine over its part of the fleet and the
+     * reservations and the engine's shared trip archive.
+     * @param shard the shard this frontend runs on
+     * @param fleet the shard's vehicles
+     * @param reservations the shard's bookings
+     * @param trips the trip archive shared by all shards
+     * @param clock the clock that defines today
+     * @param out the sink that receives the response of each command
+     * @param metrics the metrics shared by all shards
+     */
+    Frontend(ShardedEngine.Shard shard, Fleet fleet, Reservation reservations, TripList trips,
+             DayClock clock, OutputSink out, Metrics metrics) {
+        this.fleet = fleet;
+        this.reservations = reservations;
+        this.trips = trips;
+        this.locks = new StripedLocks();
+        this.clock = clock;
+        this.out = out;
+        this.shard = shard;
+        this.metrics = metrics;
+    }
+
+    private Frontend(Frontend shared, OutputSink out) {
+        this.fleet = shared.fleet;
+        this.reservations = shared.reservations;
+        this.trips = shared.trips;
+        this.locks = shared.locks;
+        this.clock = shared.clock;
+        this.out = out;
+        this.log = shared.log;
+        this.snapshot = shared.snapshot;
+        this.snapshotEvery = shared.snapshotEvery;
+        this.snapshotEpoch = shared.snapshotEpoch;
+        this.shard = shared.shard;
+        this.metrics = shared.metrics;
+        if (log != null) out.beforeWrite(this::commitLog);
+    }
+
+    /**
+     * Gets the latency histograms and rejection counters of this frontend and
+     * of every session sharing its state.
+     * @return the metrics
+     */
+    Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Creates a frontend for one client session that shares this frontend's
+     * state, log and snapshot settings but answers through its own sink.
+     * Must be called after the state is recovered.
+     * @param out the sink of the session
+     * @return the session frontend
+     */
+    Frontend session(OutputSink out) {
+        return new Frontend(this, out);
+    }
+
+    /**
+     * Loads the state from a snapshot file, if it exists, and writes a new snapshot
+     * to the file on Q and, with a command log, whenever the log holds the given
+     * number of records. Must be called before recover() and before any command
+     * is processed.
+     * @param file the snapshot file
+     * @param every the number of log records between snapshots, or 0 for only on Q
+     * @throws IOException if the snapshot exists but cannot be loaded
+     */
+    public void useSnapshot(Path file, long every) throws IOException {
+        if (Files.exists(file)) {
+            snapshotEpoch = Snapshot.load(file, fleet, reservations, trips);
+        }
+        this.snapshot = file;
+        this.snapshotEvery = every;
+    }
+
+    /**
+     * Rebuilds the state from a command log and then logs every further change
+     * to it, committing it before any output is written out. Must be called
+     * before any command is processed. When a snapshot is
+     * used, only the log of the snapshot's epoch is replayed on top of it; a log
+     * of an older epoch is already in the snapshot and is emptied.
+     * @param log the log to replay and append to
+     * @throws IOException if the log cannot be read or is newer than the snapshot
+     */
+    public void recover(CommandLog log) throws IOException {
+        if (log.epoch() < snapshotEpoch) {
+            log.reset(snapshotEpoch);
+        } else if (log.epoch() > snapshotEpoch) {
+            throw new IOException("the command log is newer than the snapshot; the snapshot is missing");
+        }
+        log.replay(this);
+        this.log = log;
+        out.beforeWrite(this::commitLog);
+    }
 
     /**
      * Starts the loop, reading commands from standard input,
      * printing the system start message, and terminating when 'Q'
      * is entered. Calls process() for each non-empty command line.
+     * Output is flushed after every line, since a user is waiting for it.
+     * The command log, if any, is committed before each flush.
      */
     public void run() {
-        System.out.println("Vehicle Management System is running.");
+        out.println("Vehicle Management System is running.");
+        flush();
         Scanner sc = new Scanner(System.in);
-        while (true) {
-            if (!sc.hasNextLine()) break;
-            String line = sc.nextLine().trim();
-            if (line.isEmpty()) continue;
-            if (line.charAt(0) == 'Q') {
-                System.out.println("Vehicle Management System is terminated.");
-                break;
+        try {
+            while (true) {
+                if (!sc.hasNextLine()) break;
+                String line = sc.nextLine();
+                boolean more = processLine(line, 0, line.length());
+                flush();
+                if (!more) {
+                    checkpoint(false);
+                    break;
+                }
             }
-            process(line);
+        } finally {
+            flush();
+            sc.close();
         }
-        sc.close();
     }
 
     /**
-     * Processes a single input command line by tokenizing the string,
-     * identifying the command, and invoking the appropriate logic.
-     * All validations are performed in left-to-right order.
-     *
-     * @param line the command line entered by the user
+     * Runs the commands of a file in batch mode. The file is memory-mapped and
+     * split into lines and tokens over the mapped bytes; the output is the same
+     * as feeding the file to run() through standard input. Output is only
+     * flushed when the sink's buffer fills and at the end of the run, and the
+     * command log is committed as one group just before each of those writes.
+     * @param file the command file
+     * @throws IOException if the file cannot be read
      */
-    private void process(String line) {
-        StringTokenizer st = new StringTokenizer(line);
-        if (!st.hasMoreTokens()) return;
-        String cmd = st.nextToken();
-
-        switch (cmd) {
-            case "A": handleAdd(st); break;
-            case "D": handleDelete(st); break;
-            case "B": handleBook(st); break;
-            case "C": handleCancel(st); break;
-            case "R": handleReturn(st); break;
-            case "PF": fleet.printByMake(); break;
-            case "PR": reservations.printByVehicle(); break;
-            case "PD": reservations.printByDept(); break;
-            case "PT": trips.print(); break;
-            default:
-                System.out.println(cmd + " - invalid command!");
+    public void runBatch(Path file) throws IOException {
+        out.println("Vehicle Management System is running.");
+        try (MappedCommandFile in = MappedCommandFile.open(file)) {
+            while (in.nextLine()) {
+                if (!processLine(in.chars(), in.lineStart(), in.lineEnd())) {
+                    checkpoint(false);
+                    break;
+                }
+            }
+        } finally {
+            flush();
         }
     }
 
-    /** Processes the A command (add vehicle) */
-    private void handleAdd(StringTokenizer st) {
-        String plate = st.nextToken();
-        String obtainedTok = st.nextToken();
-        Date obtained = Date.fromString(obtainedTok);
-        if (obtained == null || !obtained.isValid()) {
-            System.out.println(obtainedTok + " - invalid calendar date.");
-            return;
-        }
-        if (!isBeforeToday(obtained)) {
-            System.out.println(obtainedTok + " - is today or a future date.");
-            return;
-        }
-        String makeTok = st.nextToken();
-        Make make;
+    /**
+     * Runs the commands of a file like runBatch(), with the same output, but
+     * parses and validates them on two other threads ahead of the thread that
+     * executes them (see CommandPipeline), so on a multi-core host reading the
+     * file overlaps with changing the state.
+     * @param file the command file
+     * @throws IOException if the file cannot be read
+     */
+    public void runPipelined(Path file) throws IOException {
+        out.println("Vehicle Management System is running.");
         try {
-            make = Make.valueOf(makeTok.toUpperCase());
-        } catch (IllegalArgumentException e) {
-            System.out.println(makeTok + " - invalid make.");
-            return;
+            if (!CommandPipeline.run(this, clock, file)) checkpoint(false);
+        } finally {
+            flush();
         }
-        String mileageTok = st.nextToken();
-        int mileage;
+    }
+
+    /**
+     * Runs the commands of one client session until the client disconnects or
+     * sends Q, which ends only this session. Output is flushed whenever no more
+     * input is waiting, so a client that sends many commands at once gets its
+     * responses, and its log records committed, in groups.
+     * Unlike a batch run, which stops on a line it cannot process, a session
+     * answers such a line, one with missing tokens for example, as an invalid
+     * command and goes on, so one bad line does not cut off the client.
+     * @param in the commands of the client
+     * @throws IOException if the connection fails
+     */
+    void runSession(BufferedReader in) throws IOException {
+        out.println("Vehicle Management System is running.");
+        flush();
         try {
-            mileage = Integer.parseInt(mileageTok);
-        } catch (NumberFormatException e) {
-            System.out.println(mileageTok + " - invalid mileage.");
-            return;
+            String line;
+            while ((line = in.readLine()) != null) {
+                boolean more;
+                try {
+                    more = processLine(line, 0, line.length());
+                } catch (UncheckedIOException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    metrics.reject(Metrics.Rejection.INVALID_COMMAND);
+                    out.println(line.trim() + " - invalid command!");
+                    more = true;
+                }
+                if (!more) break;
+                if (!in.ready()) flush();
+            }
+        } finally {
+            flush();
         }
-        if (mileage <= 0) {
-            System.out.println(mileageTok + " - invalid mileage.");
-            return;
+    }
+
+    /**
+     * Commits the command log, if any, then flushes the output. The sink also
+     * commits the log whenever it writes out a full buffer, so no response
+     * reaches the user before the change it reports is durable.
+     */
+    private void flush() {
+        commitLog();
+        out.flush();
+    }
+
+    private void commitLog() {
+        if (log != null) {
+            try {
+                log.commit();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
-        Vehicle probe = new Vehicle(plate, obtained, make, mileage);
-        if (fleet.contains(probe)) {
-            System.out.println(plate + " is already in the fleet.");
-            return;
+    }
+
+    /**
+     * Handles one input line held in chars[from, to): blank lines are skipped and
+     * a line starting with 'Q' terminates the system. The line is parsed,
+     * validated and executed on the calling thread.
+     * @param chars the characters holding the line
+     * @param from the index of the first character of the line
+     * @param to the index after the last character of the line
+     * @return false if the line terminated the system, true otherwise
+     */
+    boolean processLine(CharSequence chars, int from, int to) {
+        while (from < to && chars.charAt(from) <= ' ') from++;
+        while (to > from && chars.charAt(to - 1) <= ' ') to--;
+        if (from == to) return true;
+        long started = System.nanoTime();
+        command.parse(chars, from, to);
+        command.started = started;
+        command.validate(clock);
+        return execute(command);
+    }
+
+    /**
+     * Executes a parsed and validated command: prints the outcome validation
+     * decided, or makes the checks that depend on the state, in left-to-right
+     * order, and applies the change. The time since c.started is recorded as
+     * the latency of the command, and a rejection is counted by its reason.
+     * @param c the command
+     * @return false if the command terminated the system, true otherwise
+     */
+    boolean execute(Command c) {
+        if (c.kind == Command.Kind.QUIT) {
+            out.println("Vehicle Management System is terminated.");
+            return false;
+        }
+        if (c.settled) {
+            if (c.failure != null) throw c.failure;
+            metrics.reject(c.rejection);
+            if (c.reply != null) out.println(c.reply);
+        } else {
+            switch (c.kind) {
+                case ADD: handleAdd(c); break;
+                case DELETE: handleDelete(c); break;
+                case BOOK: handleBook(c); break;
+                case CANCEL: handleCancel(c); break;
+                case RETURN: handleReturn(c); break;
+                case PRINT_FLEET:
+                case PRINT_RESERVATIONS:
+                case PRINT_DEPT:
+                case PRINT_TRIPS: handlePrint(c.kind); break;
+                case PRINT_METRICS: metrics.print(out); break;
+                case PRINT_UTILIZATION:
+                case PRINT_BOOKED_OUT: handleUtilization(c); break;
+                case FIND: handleFind(c); break;
+                case BOOK_FIRST: handleBookFirst(c); break;
+                case WINDOW: handleWindow(c); break;
+                default:
+            }
+        }
+        metrics.record(c.kind, System.nanoTime() - c.started);
+        if (log != null && snapshot != null && snapshotEvery > 0 && log.records() >= snapshotEvery) {
+            checkpoint(true);
         }
-        fleet.add(probe);
-        System.out.println(probe + " has been added to the fleet.");
+        return true;
     }
 
-    /** Processes the D command (delete vehicle) */
-    private void handleDelete(StringTokenizer st) {
-        String plate = st.nextToken();
-        Vehicle existing = fleet.getByPlate(plate);
-        if (existing == null) {
-            System.out.println(plate + " is not in the fleet.");
-            return;
+    /**
+     * Writes a snapshot of the current state with the next epoch, if snapshots
+     * are used, and empties the command log, whose changes are all in it.
+     * @param due true to skip the snapshot if another session has just written one
+     */
+    private void checkpoint(boolean due) {
+        if (snapshot == null) return;
+        Lock write = locks.write();
+        write.lock();
+        try {
+            if (due && log.records() < snapshotEvery) return;
+            long epoch = (log != null ? log.epoch() : snapshotEpoch) + 1;
+            Snapshot.write(snapshot, epoch, fleet, reservations, trips);
+            if (log != null) log.reset(epoch);
+            snapshotEpoch = epoch;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            write.unlock();
         }
-        if (hasVehicleBookings(plate)) {
-            System.out.println(plate + " - has existing bookings; cannot be removed.");
-            return;
+    }
+
+    /** Processes the PF, PR, PD and PT commands under the read lock. */
+    private void handlePrint(Command.Kind kind) {
+        Lock read = locks.read();
+        read.lock();
+        try {
+            switch (kind) {
+                case PRINT_FLEET: fleet.printByMake(out); break;
+                case PRINT_RESERVATIONS: reservations.printByVehicle(out); break;
+                case PRINT_DEPT: reservations.printByDept(out); break;
+                default: trips.print(out);
+            }
+        } finally {
+            read.unlock();
         }
-        fleet.remove(existing);
-        System.out.println(existing + " has been removed from the fleet.");
     }
 
-    /** Processes the B command (book vehicle) */
-    private void handleBook(StringTokenizer st) {
-        String beginTok = st.nextToken();
-        Date begin = Date.fromString(beginTok);
-        if (begin == null || !begin.isValid()) {
-            System.out.println(beginTok + " - beginning date is not a valid calendar date.");
-            return;
+    /**
+     * Processes the PU and PB commands. The write lock is taken to move the
+     * availability bitmaps to today first.
+     */
+    private void handleUtilization(Command c) {
+        Lock write = locks.write();
+        write.lock();
+        try {
+            reservations.slideWindow(clock.today());
+            Fleet[] fleets = {fleet};
+            Reservation[] parts = {reservations};
+            if (c.kind == Command.Kind.PRINT_UTILIZATION) {
+                Utilization.printBookedOn(out, fleets, parts, c.begin, c.make);
+            } else {
+                Utilization.printBookedOut(out, fleets, parts, c.make);
+            }
+        } finally {
+            write.unlock();
         }
-        if (isBeforeToday(begin)) {
-            System.out.println(beginTok + " - beginning date is not today or a future date.");
-            return;
+    }
+
+    /** Processes the F command (find free vehicles of a make) under the read lock. */
+    private void handleFind(Command c) {
+        Lock read = locks.read();
+        read.lock();
+        try {
+            Utilization.printAvailable(out, new Fleet[] {fleet}, new Reservation[] {reservations}, c);
+        } finally {
+            read.unlock();
         }
-        if (!withinThreeMonths(begin)) {
-            System.out.println(beginTok + " - beginning date beyond 3 months.");
-            return;
+    }
+
+    /** Processes the BF command (book the first free vehicle of a make) */
+    private void handleBookFirst(Command c) {
+        out.println(bookFirst(c));
+    }
+
+    /**
+     * Finds the first free vehicle of the make and books it, as B would with its
+     * plate. The search only needs the read lock; the plate's stripe lock is then
+     * taken, in the usual lock order, and the vehicle is checked again, since
+     * another session may have booked or removed it in between. If it has, the
+     * search starts over.
+     */
+    private String bookFirst(Command c) {
+        Lock read = locks.read();
+        while (true) {
+            Vehicle v;
+            read.lock();
+            try {
+                v = Utilization.firstAvailable(new Fleet[] {fleet}, new Reservation[] {reservations},
+                        c.begin, c.end, c.make);
+            } finally {
+                read.unlock();
+            }
+            if (v == null) {
+                metrics.reject(Metrics.Rejection.NOT_AVAILABLE);
+                return Utilization.noneAvailable(c);
+            }
+            String plate = v.getPlate();
+            Lock stripe = locks.plate(plate);
+            stripe.lock();
+            try {
+                read.lock();
+                try {
+                    if (fleet.getByPlate(plate) != v || !reservations.isVehicleAvailable(plate, c.begin, c.end)) {
+                        continue;
+                    }
+                } finally {
+                    read.unlock();
+                }
+                Employee emp = c.employee;
+                Lock employee = locks.employee(emp);
+                employee.lock();
+                try {
+                    read.lock();
+                    try {
+                        if (reservations.hasEmployeeConflict(emp, c.begin, c.end)) {
+                            metrics.reject(Metrics.Rejection.EMPLOYEE_CONFLICT);
+                            return emp.name() + " - has an existing booking conflicting with the beginning date "
+                                    + c.args[0];
+                        }
+                    } finally {
+                        read.unlock();
+                    }
+                    Lock write = locks.write();
+                    write.lock();
+                    try {
+                        return applyBook(c.begin, c.end, plate, emp) + " booked.";
+                    } finally {
+                        write.unlock();
+                    }
+                } finally {
+                    employee.unlock();
+                }
+            } finally {
+                stripe.unlock();
+            }
         }
+    }
 
-        String endTok = st.nextToken();
-        Date end = Date.fromString(endTok);
-        if (end == null || !end.isValid()) {
-            System.out.println(endTok + " - ending date is not a valid calendar date.");
-            return;
+    /** Processes the W command (earliest free window of a vehicle) under the read lock. */
+    private void handleWindow(Command c) {
+        String reply;
+        Lock read = locks.read();
+        read.lock();
+        try {
+            reply = window(c);
+        } finally {
+            read.unlock();
         }
-        if (end.compareTo(begin) < 0) {
-            System.out.println(endTok + " - ending date must be equal or after the beginning date " + beginTok);
-            return;
+        out.println(reply);
+    }
+
+    private String window(Command c) {
+        if (fleet.getByPlate(c.plate) == null) {
+            metrics.reject(Metrics.Rejection.NOT_IN_FLEET);
+            return c.plate + " is not in the fleet.";
         }
-        if (daysSpan(begin, end) > 7) {
-            System.out.println(beginTok + " ~ " + endTok + " - duration more than a week.");
-            return;
+        int limit = clock.bookingLimit();
+        int first = reservations.firstFreeWindow(c.plate, c.begin.toEpochDay(), c.days);
+        if (first > limit) {
+            metrics.reject(Metrics.Rejection.NOT_AVAILABLE);
+            return c.plate + " - no free window of " + c.days + " days begins by " + Date.ofEpochDay(limit) + ".";
         }
+        return c.plate + " is free for " + Date.ofEpochDay(first) + " ~ " + Date.ofEpochDay(first + c.days - 1) + ".";
+    }
 
-        String plate = st.nextToken();
-        Vehicle veh = fleet.getByPlate(plate);
-        if (veh == null) {
-            System.out.println(plate + " is not in the fleet.");
+    /** Processes the A command (add vehicle) */
+    private void handleAdd(Command c) {
+        Vehicle v;
+        Lock stripe = locks.plate(c.plate);
+        Lock write = locks.write();
+        stripe.lock();
+        write.lock();
+        try {
+            v = fleet.getByPlate(c.plate) == null ? applyAdd(c.plate, c.obtained, c.make, c.mileage) : null;
+        } finally {
+            write.unlock();
+            stripe.unlock();
+        }
+        if (v == null) {
+            metrics.reject(Metrics.Rejection.ALREADY_IN_FLEET);
+            out.println(c.plate + " is already in the fleet.");
             return;
         }
-        if (!isVehicleAvailable(plate, begin, end)) {
-            System.out.println(plate + " - booking with " + beginTok + " ~ " + endTok + " not available.");
-            return;
+        out.println(v + " has been added to the fleet.");
+    }
+
+    /** Processes the D command (delete vehicle) */
+    private void handleDelete(Command c) {
+        String reply;
+        Lock stripe = locks.plate(c.plate);
+        Lock write = locks.write();
+        stripe.lock();
+        write.lock();
+        try {
+            reply = delete(c.plate);
+        } finally {
+            write.unlock();
+            stripe.unlock();
+        }
+        out.println(reply);
+    }
+
+    private String delete(String plate) {
+        Vehicle existing = fleet.getByPlate(plate);
+        if (existing == null) {
+            metrics.reject(Metrics.Rejection.NOT_IN_FLEET);
+            return plate + " is not in the fleet.";
+        }
+        if (reservations.hasVehicleBookings(plate)) {
+            metrics.reject(Metrics.Rejection.HAS_BOOKINGS);
+            return plate + " - has existing bookings; cannot be removed.";
         }
+        applyDelete(plate);
+        return existing + " has been removed from the fleet.";
+    }
 
-        String empTok = st.nextToken();
-        Employee emp;
+    /** Processes the B command (book vehicle) */
+    private void handleBook(Command c) {
+        String reply;
+        Lock stripe = locks.plate(c.plate);
+        stripe.lock();
         try {
-            emp = Employee.valueOf(empTok.toUpperCase());
-        } catch (IllegalArgumentException e) {
-            System.out.println(empTok + " - not an eligible employee to book.");
-            return;
+            reply = book(c);
+        } finally {
+            stripe.unlock();
         }
-        if (hasEmployeeConflict(emp, begin, end)) {
-            System.out.println(emp.name() + " - has an existing booking conflicting with the beginning date " + beginTok);
-            return;
+        out.println(reply);
+    }
+
+    /**
+     * Checks the vehicle and the employee of a booking and books it. Called with
+     * the plate's stripe lock held; the checks only need the read lock, since
+     * the vehicle's and the employee's bookings cannot change while their locks
+     * are held.
+     */
+    private String book(Command c) {
+        String plate = c.plate;
+        Date begin = c.begin;
+        Date end = c.end;
+        Lock read = locks.read();
+        read.lock();
+        try {
+            if (fleet.getByPlate(plate) == null) {
+                metrics.reject(Metrics.Rejection.NOT_IN_FLEET);
+                return plate + " is not in the fleet.";
+            }
+            if (!reservations.isVehicleAvailable(plate, begin, end)) {
+                metrics.reject(Metrics.Rejection.NOT_AVAILABLE);
+                return plate + " - booking with " + c.args[0] + " ~ " + c.args[1] + " not available.";
+            }
+        } finally {
+            read.unlock();
         }
 
-        Booking b = new Booking(begin, end, emp, veh);
-        reservations.add(b);
-        System.out.println(b + " booked.");
+        if (c.lateFailure != null) throw c.lateFailure;
+        if (c.lateReply != null) {
+            metrics.reject(c.lateRejection);
+            return c.lateReply;
+        }
+        Employee emp = c.employee;
+        Booking b;
+        Lock employee = locks.employee(emp);
+        employee.lock();
+        try {
+            enterTurn();
+            read.lock();
+            try {
+                if (employeeConflict(emp, begin, end)) {
+                    metrics.reject(Metrics.Rejection.EMPLOYEE_CONFLICT);
+                    return emp.name() + " - has an existing booking conflicting with the beginning date " + c.args[0];
+                }
+            } finally {
+                read.unlock();
+            }
+            Lock write = locks.write();
+            write.lock();
+            try {
+                b = applyBook(begin, end, plate, emp);
+            } finally {
+                write.unlock();
+            }
+        } finally {
+            employee.unlock();
+        }
+        return b + " booked.";
     }
 
     /** Processes the C command (cancel booking) */
-    private void handleCancel(StringTokenizer st) {
-        String beginTok = st.nextToken();
-        String endTok = st.nextToken();
-        String plate = st.nextToken();
-
-        Date begin = Date.fromString(beginTok);
-        Date end = Date.fromString(endTok);
-        if (begin == null || end == null || !begin.isValid() || !end.isValid()) {
-            return;
-        }
-        Booking b = findBooking(begin, end, plate);
-        if (b == null) {
-            System.out.println(plate + ":" + beginTok + " ~ " + endTok + " - cannot find the booking.");
+    private void handleCancel(Command c) {
+        enterTurn();
+        boolean found;
+        Lock stripe = locks.plate(c.plate);
+        Lock write = locks.write();
+        stripe.lock();
+        write.lock();
+        try {
+            found = reservations.find(c.plate, c.begin, c.end) != null;
+            if (found) applyCancel(c.begin, c.end, c.plate);
+        } finally {
+            write.unlock();
+            stripe.unlock();
+        }
+        if (!found) {
+            metrics.reject(Metrics.Rejection.BOOKING_NOT_FOUND);
+            out.println(c.plate + ":" + c.args[0] + " ~ " + c.args[1] + " - cannot find the booking.");
             return;
         }
-        reservations.remove(b);
-        System.out.println(plate + ":" + beginTok + " ~ " + endTok + " has been canceled.");
+        out.println(c.plate + ":" + c.args[0] + " ~ " + c.args[1] + " has been canceled.");
     }
 
     /** Processes the R command (return vehicle) */
-    private void handleReturn(StringTokenizer st) {
-        String endTok = st.nextToken();
-        String plate = st.nextToken();
-        String mileageTok = st.nextToken();
-
-        Date end = Date.fromString(endTok);
-        if (end == null || !end.isValid()) {
-            return;
+    private void handleReturn(Command c) {
+        enterTurn();
+        String reply;
+        Lock stripe = locks.plate(c.plate);
+        Lock write = locks.write();
+        stripe.lock();
+        write.lock();
+        try {
+            reply = giveBack(c);
+        } finally {
+            write.unlock();
+            stripe.unlock();
         }
-        Booking b = findBookingByEndAndPlate(end, plate);
+        out.println(reply);
+    }
+
+    /**
+     * Checks and completes a return. Called with the write lock held, since the
+     * return order depends on every booking.
+     */
+    private String giveBack(Command c) {
+        String plate = c.plate;
+        Booking b = reservations.findByEnd(plate, c.end);
         if (b == null) {
-            System.out.println(plate + " booked with ending date " + endTok + " - cannot find the booking.");
-            return;
+            metrics.reject(Metrics.Rejection.BOOKING_NOT_FOUND);
+            return plate + " booked with ending date " + c.args[0] + " - cannot find the booking.";
         }
 
-        Date earliest = earliestEndingDate();
-        if (earliest != null && end.compareTo(earliest) != 0) {
-            System.out.println(plate + " booked with ending date " + endTok + " - returning not in order of ending date.");
-            return;
+        Date earliest = earliestEnd();
+        if (earliest != null && c.end.compareTo(earliest) != 0) {
+            metrics.reject(Metrics.Rejection.RETURN_OUT_OF_ORDER);
+            return plate + " booked with ending date " + c.args[0] + " - returning not in order of ending date.";
         }
 
-        int newMileage;
-        try { newMileage = Integer.parseInt(mileageTok); }
-        catch (NumberFormatException e) {
-            System.out.println(mileageTok + " - invalid mileage.");
-            return;
+        if (c.lateReply != null) {
+            metrics.reject(c.lateRejection);
+            return c.lateReply;
         }
-        if (newMileage <= 0) {
-            System.out.println(mileageTok + " - invalid mileage.");
-            return;
-        }
-
+        int newMileage = c.mileage;
         Vehicle veh = b.getVehicle();
         int original = veh.getMileage();
         if (newMileage <= original) {
-            System.out.println("Invalid mileage - current mileage: " + original + " entered mileage: " + newMileage);
-            return;
+            metrics.reject(Metrics.Rejection.MILEAGE_NOT_INCREASED);
+            return "Invalid mileage - current mileage: " + original + " entered mileage: " + newMileage;
         }
 
-        Trip t = new Trip(b, original, newMileage);
-        trips.add(t);
-        veh.setMileage(newMileage);
-        reservations.remove(b);
-        System.out.println("Trip completed: " + t);
-    }
-
-    private boolean isBeforeToday(Date d) {
-        Calendar today = Calendar.getInstance();
-        Calendar c = toCal(d);
-        zeroHMS(today); zeroHMS(c);
-        return c.before(today);
-    }
-
-    private boolean withinThreeMonths(Date d) {
-        Calendar today = Calendar.getInstance();
-        zeroHMS(today);
-        Calendar limit = (Calendar) today.clone();
-        limit.add(Calendar.MONTH, 3);
-        Calendar c = toCal(d);
-        zeroHMS(c);
-        return !c.after(limit);
-    }
-
-    private int daysSpan(Date a, Date b) {
-        Calendar ca = toCal(a), cb = toCal(b);
-        zeroHMS(ca); zeroHMS(cb);
-        long diffMs = cb.getTimeInMillis() - ca.getTimeInMillis();
-        long d = diffMs / (24L*60*60*1000);
-        return (int) d + 1;
+        return "Trip completed: " + applyReturn(c.end, plate, newMileage);
     }
 
-    private Calendar toCal(Date d) {
-        Calendar c = Calendar.getInstance();
-        c.set(Calendar.YEAR,  d.getYear());
-        c.set(Calendar.MONTH, d.getMonth() - 1);
-        c.set(Calendar.DAY_OF_MONTH, d.getDay());
-        return c;
+    /**
+     * In a shard, waits until every earlier command that may change bookings has
+     * run, so cross-shard checks and booking changes happen in input order.
+     */
+    private void enterTurn() {
+        if (shard != null) shard.enterTurn();
     }
 
-    private void zeroHMS(Calendar c) {
-        c.set(Calendar.HOUR_OF_DAY, 0);
-        c.set(Calendar.MINUTE, 0);
-        c.set(Calendar.SECOND, 0);
-        c.set(Calendar.MILLISECOND, 0);
+    private boolean employeeConflict(Employee emp, Date begin, Date end) {
+        return shard != null ? shard.hasEmployeeConflict(emp, begin, end)
+                : reservations.hasEmployeeConflict(emp, begin, end);
     }
 
-    private boolean overlaps(Date a1, Date a2, Date b1, Date b2) {
-        return a1.compareTo(b2) <= 0 && b1.compareTo(a2) <= 0;
+    private Date earliestEnd() {
+        return shard != null ? shard.earliestEnd() : reservations.earliestEnd();
     }
 
-    private boolean isVehicleAvailable(String plate, Date begin, Date end) {
-        for (int i = 0; i < reservations.size(); i++) {
-            Booking b = reservations.get(i);
-            if (b.getVehicle().getPlate().equals(plate)) {
-                if (overlaps(begin, end, b.getBegin(), b.getEnd())) return false;
-            }
-        }
-        return true;
-    }
+    /*
+     * The apply methods make the state change of a command that has passed
+     * validation, and log it. Commands call them with the write lock held; a
+     * replay calls them before the log is attached and before any session
+     * starts, so replayed changes are not logged twice.
+     */
 
-    private boolean hasEmployeeConflict(Employee emp, Date begin, Date end) {
-        for (int i = 0; i < reservations.size(); i++) {
-            Booking b = reservations.get(i);
-            if (b.getEmployee() == emp) {
-                if (overlaps(begin, end, b.getBegin(), b.getEnd())) return true;
-            }
-        }
-        return false;
+    /** Adds a vehicle to the fleet. */
+    Vehicle applyAdd(String plate, Date obtained, Make make, int mileage) {
+        Vehicle v = new Vehicle(plate, obtained, make, mileage);
+        fleet.add(v);
+        if (log != null) log.logAdd(plate, obtained, make, mileage);
+        return v;
     }
 
-    private boolean hasVehicleBookings(String plate) {
-        for (int i = 0; i < reservations.size(); i++) {
-            if (reservations.get(i).getVehicle().getPlate().equals(plate)) return true;
-        }
-        return false;
+    /** Removes a vehicle from the fleet. */
+    void applyDelete(String plate) {
+        fleet.remove(fleet.getByPlate(plate));
+        if (log != null) log.logDelete(plate);
     }
 
-    private Booking findBooking(Date begin, Date end, String plate) {
-        for (int i = 0; i < reservations.size(); i++) {
-            Booking b = reservations.get(i);
-            if (b.getVehicle().getPlate().equals(plate)
-                    && b.getBegin().equals(begin)
-                    && b.getEnd().equals(end)) return b;
-        }
-        return null;
+    /** Books a vehicle for an employee. */
+    Booking applyBook(Date begin, Date end, String plate, Employee emp) {
+        Booking b = new Booking(begin, end, emp, fleet.getByPlate(plate));
+        reservations.slideWindow(clock.today());
+        reservations.add(b);
+        if (log != null) log.logBook(begin, end, plate, emp);
+        return b;
     }
 
-    private Booking findBookingByEndAndPlate(Date end, String plate) {
-        for (int i = 0; i < reservations.size(); i++) {
-            Booking b = reservations.get(i);
-            if (b.getVehicle().getPlate().equals(plate)
-                    && b.getEnd().equals(end)) return b;
-        }
-        return null;
+    /** Cancels a booking. */
+    void applyCancel(Date begin, Date end, String plate) {
+        reservations.remove(reservations.find(plate, begin, end));
+        if (log != null) log.logCancel(begin, end, plate);
     }
 
-    private Date earliestEndingDate() {
-        Date best = null;
-        for (int i = 0; i < reservations.size(); i++) {
-            Date e = reservations.get(i).getEnd();
-            if (best == null || e.compareTo(best) < 0) best = e;
-        }
-        return best;
+    /** Returns a vehicle, archiving the trip and updating the mileage. */
+    Trip applyReturn(Date end, String plate, int mileage) {
+        Booking b = reservations.findByEnd(plate, end);
+        Vehicle veh = b.getVehicle();
+        Trip t = new Trip(b, veh.getMileage(), mileage);
+        trips.add(t);
+        veh.setMileage(mileage);
+        reservations.remove(b);
+        if (log != null) log.logReturn(end, plate, mileage);
+        return t;
     }
 }
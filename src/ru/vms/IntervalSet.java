@@ -0,0 +1,188 @@
+package ru.vms;
+
+/**
+ * Bookings of one owner (a vehicle or an employee) kept sorted by beginning date,
+ * as parallel arrays of beginning and ending epoch days and booking ids (rows of
+ * the owning Reservation). The bookings in a set never overlap, since Frontend
+ * rejects a booking that conflicts with the vehicle or the employee; their ending
+ * dates are therefore sorted as well, and an overlap query only has to look at
+ * one neighbour.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+class IntervalSet {
+    private static final int CAPACITY = 4;
+
+    private int[] begins;
+    private int[] ends;
+    private int[] ids;
+    private int size;
+
+    /**
+     * Creates an empty set.
+     */
+    IntervalSet() {
+        this.begins = new int[CAPACITY];
+        this.ends = new int[CAPACITY];
+        this.ids = new int[CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Finds the number of bookings beginning on or before the given day.
+     * @param day the epoch day to search for
+     * @return the index of the first booking beginning after day
+     */
+    private int upperBound(int day) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (begins[mid] <= day) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Inserts a booking after any booking with the same beginning date.
+     * @param begin the beginning epoch day
+     * @param end the ending epoch day
+     * @param id the booking's id
+     */
+    void add(int begin, int end, int id) {
+        if (size == begins.length) {
+            int cap = begins.length * 2;
+            int[] b = new int[cap];
+            int[] e = new int[cap];
+            int[] n = new int[cap];
+            System.arraycopy(begins, 0, b, 0, size);
+            System.arraycopy(ends, 0, e, 0, size);
+            System.arraycopy(ids, 0, n, 0, size);
+            begins = b;
+            ends = e;
+            ids = n;
+        }
+        int at = upperBound(begin);
+        System.arraycopy(begins, at, begins, at + 1, size - at);
+        System.arraycopy(ends, at, ends, at + 1, size - at);
+        System.arraycopy(ids, at, ids, at + 1, size - at);
+        begins[at] = begin;
+        ends[at] = end;
+        ids[at] = id;
+        size++;
+    }
+
+    private int indexOf(int begin, int id) {
+        for (int i = upperBound(begin) - 1; i >= 0 && begins[i] == begin; i--) {
+            if (ids[i] == id) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Removes a booking, if present.
+     * @param begin the booking's beginning epoch day
+     * @param id the booking's id
+     * @return true if the booking was removed
+     */
+    boolean remove(int begin, int id) {
+        int i = indexOf(begin, id);
+        if (i < 0) return false;
+        System.arraycopy(begins, i + 1, begins, i, size - i - 1);
+        System.arraycopy(ends, i + 1, ends, i, size - i - 1);
+        System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * Records that a booking has moved to another id.
+     * @param begin the booking's beginning epoch day
+     * @param from the booking's old id
+     * @param to the booking's new id
+     */
+    void renumber(int begin, int from, int to) {
+        int i = indexOf(begin, from);
+        if (i >= 0) ids[i] = to;
+    }
+
+    /**
+     * Checks whether any booking in the set overlaps the inclusive range [begin, end].
+     * Only the last booking beginning on or before end can overlap, so this is one
+     * binary search.
+     * @param begin the beginning epoch day of the range
+     * @param end the ending epoch day of the range
+     * @return true if a booking overlaps, false otherwise
+     */
+    boolean overlaps(int begin, int end) {
+        int i = upperBound(end) - 1;
+        return i >= 0 && ends[i] >= begin;
+    }
+
+    /**
+     * Finds the first run of free days of the given length starting on or after
+     * a day. The gaps between the bookings are walked from the first booking that
+     * ends on or after that day, so bookings before it are skipped by one binary
+     * search.
+     * @param from the earliest first day, as an epoch day
+     * @param days the number of days, at least 1
+     * @return the first day of the run, as an epoch day
+     */
+    int firstGap(int from, int days) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] < from) lo = mid + 1;
+            else hi = mid;
+        }
+        int start = from;
+        for (int i = lo; i < size; i++) {
+            if (begins[i] - start >= days) break;
+            start = Math.max(start, ends[i] + 1);
+        }
+        return start;
+    }
+
+    /**
+     * Gets the beginning epoch day of the booking at the given index.
+     * @param i the index (0-based, must be &lt; size)
+     * @return the beginning epoch day
+     */
+    int beginAt(int i) {
+        return begins[i];
+    }
+
+    /**
+     * Gets the ending epoch day of the booking at the given index.
+     * @param i the index (0-based, must be &lt; size)
+     * @return the ending epoch day
+     */
+    int endAt(int i) {
+        return ends[i];
+    }
+
+    /**
+     * Gets the id of the booking at the given index, in beginning date order.
+     * @param i the index (0-based, must be &lt; size)
+     * @return the booking's id
+     */
+    int idAt(int i) {
+        return ids[i];
+    }
+
+    /**
+     * Gets the number of bookings in the set.
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the set has no bookings.
+     * @return true if empty, false otherwise
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -0,0 +1,89 @@
+package ru.vms;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in logarithmic buckets: every power of two is split into 16
+ * buckets, so a percentile is off by at most 1/16 of its value, and the whole
+ * range of a long fits in under a thousand counters. Recording is one array
+ * increment and allocates nothing; several threads may record at once.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Gets the bucket of a value: values below 16 have a bucket each, larger ones
+     * share a bucket with the values that agree in their top five bits.
+     */
+    private static int bucket(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Gets the largest value that falls into a bucket.
+     */
+    private static long highest(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exp - SUB_BITS);
+        return low + (1L << (exp - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Records one latency.
+     * @param nanos the latency in nanoseconds; negative values count as 0
+     */
+    void record(long nanos) {
+        long v = Math.max(nanos, 0);
+        counts.incrementAndGet(bucket(v));
+        long m = max.get();
+        while (v > m && !max.compareAndSet(m, v)) m = max.get();
+    }
+
+    /**
+     * Gets the number of recorded latencies.
+     * @return the count
+     */
+    long count() {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += counts.get(i);
+        return n;
+    }
+
+    /**
+     * Gets the largest recorded latency.
+     * @return the maximum in nanoseconds, or 0 if nothing was recorded
+     */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Gets a percentile: the latency that the given fraction of the recorded
+     * latencies do not exceed, rounded up to the end of its bucket.
+     * @param fraction the fraction, such as 0.99
+     * @return the percentile in nanoseconds, or 0 if nothing was recorded
+     */
+    long percentile(double fraction) {
+        long n = count();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highest(i), max());
+        }
+        return max();
+    }
+}
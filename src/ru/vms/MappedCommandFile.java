@@ -0,0 +1,152 @@
+package ru.vms;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a command file line by line through a memory-mapped window.
+ * Lines are found by scanning the mapped bytes for \n, \r\n or \r; the current
+ * line is exposed as a range of a CharSequence view over the window, so no line
+ * String is built. Files larger than a window are remapped at line boundaries.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public class MappedCommandFile implements Closeable {
+    private static final long WINDOW = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long length;
+    private long windowStart;
+    private long windowSize;
+    private ByteChars chars;
+    private int pos;
+    private int lineStart;
+    private int lineEnd;
+
+    private MappedCommandFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.length = channel.size();
+        map(0, WINDOW);
+    }
+
+    /**
+     * Opens a command file for reading.
+     * @param file the path of the file
+     * @return the open file, positioned before the first line
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static MappedCommandFile open(Path file) throws IOException {
+        return new MappedCommandFile(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    private void map(long start, long size) throws IOException {
+        windowStart = start;
+        windowSize = Math.min(size, length - start);
+        chars = new ByteChars(channel.map(FileChannel.MapMode.READ_ONLY, start, windowSize));
+        pos = 0;
+    }
+
+    /**
+     * Advances to the next line.
+     * @return true if there is a line, false at the end of the file
+     * @throws IOException if the next window cannot be mapped
+     */
+    public boolean nextLine() throws IOException {
+        while (true) {
+            boolean lastWindow = windowStart + windowSize == length;
+            if (pos >= windowSize && lastWindow) return false;
+            int i = pos;
+            while (i < windowSize && chars.byteAt(i) != '\n' && chars.byteAt(i) != '\r') i++;
+            boolean crAtEdge = i == windowSize - 1 && chars.byteAt(i) == '\r' && !lastWindow;
+            if ((i < windowSize && !crAtEdge) || lastWindow) {
+                lineStart = pos;
+                lineEnd = i;
+                if (i < windowSize && chars.byteAt(i) == '\r' && i + 1 < windowSize && chars.byteAt(i + 1) == '\n') i++;
+                pos = i + 1;
+                return true;
+            }
+            long size = pos == 0 ? windowSize * 2 : WINDOW;
+            map(windowStart + pos, size);
+        }
+    }
+
+    /**
+     * Gets the characters of the current window.
+     * @return the window as a CharSequence
+     */
+    public CharSequence chars() {
+        return chars;
+    }
+
+    /**
+     * Gets the start of the current line in chars().
+     * @return the index of the first character of the line
+     */
+    public int lineStart() {
+        return lineStart;
+    }
+
+    /**
+     * Gets the end of the current line in chars().
+     * @return the index after the last character of the line
+     */
+    public int lineEnd() {
+        return lineEnd;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Latin-1 view of mapped bytes for scanning; substrings are decoded as UTF-8,
+     * so tokens read the same as through a Scanner on System.in.
+     */
+    private static class ByteChars implements CharSequence {
+        private final MappedByteBuffer buf;
+        private final int from;
+        private final int to;
+
+        ByteChars(MappedByteBuffer buf) {
+            this(buf, 0, buf.limit());
+        }
+
+        private ByteChars(MappedByteBuffer buf, int from, int to) {
+            this.buf = buf;
+            this.from = from;
+            this.to = to;
+        }
+
+        byte byteAt(int i) {
+            return buf.get(from + i);
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int i) {
+            return (char) (buf.get(from + i) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new ByteChars(buf, from + start, from + end);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[to - from];
+            buf.get(from, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
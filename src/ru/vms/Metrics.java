@@ -0,0 +1,121 @@
+package ru.vms;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms per command type and counters of rejected commands by
+ * reason, shared by every frontend over one state. The PM command prints them;
+ * writeJson() dumps them for dashboards.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+final class Metrics {
+    /** Why a command was rejected. */
+    enum Rejection {
+        INVALID_COMMAND, INVALID_DATE, NOT_IN_PAST, IN_PAST, BEYOND_THREE_MONTHS, END_BEFORE_BEGIN,
+        LONGER_THAN_A_WEEK, INVALID_MAKE, INVALID_MILEAGE, INVALID_EMPLOYEE, INVALID_LIMIT,
+        INVALID_DURATION, ALREADY_IN_FLEET,
+        NOT_IN_FLEET, HAS_BOOKINGS, NOT_AVAILABLE, EMPLOYEE_CONFLICT, BOOKING_NOT_FOUND,
+        RETURN_OUT_OF_ORDER, MILEAGE_NOT_INCREASED
+    }
+
+    /** The command types that have a histogram, in report order. */
+    private static final Command.Kind[] TIMED = {
+        Command.Kind.ADD, Command.Kind.DELETE, Command.Kind.BOOK, Command.Kind.CANCEL, Command.Kind.RETURN,
+        Command.Kind.PRINT_FLEET, Command.Kind.PRINT_RESERVATIONS, Command.Kind.PRINT_DEPT,
+        Command.Kind.PRINT_TRIPS, Command.Kind.PRINT_UTILIZATION, Command.Kind.PRINT_BOOKED_OUT,
+        Command.Kind.FIND, Command.Kind.BOOK_FIRST, Command.Kind.WINDOW
+    };
+    private static final Rejection[] REJECTIONS = Rejection.values();
+
+    private final LatencyHistogram[] latency = new LatencyHistogram[Command.Kind.values().length];
+    private final AtomicLongArray rejections = new AtomicLongArray(REJECTIONS.length);
+
+    /**
+     * Creates empty histograms and counters.
+     */
+    Metrics() {
+        for (Command.Kind k : TIMED) latency[k.ordinal()] = new LatencyHistogram();
+    }
+
+    /**
+     * Records the latency of one command; kinds without a histogram are ignored.
+     * @param kind the kind of the command
+     * @param nanos the latency in nanoseconds
+     */
+    void record(Command.Kind kind, long nanos) {
+        LatencyHistogram h = latency[kind.ordinal()];
+        if (h != null) h.record(nanos);
+    }
+
+    /**
+     * Counts one rejected command.
+     * @param reason the reason it was rejected
+     */
+    void reject(Rejection reason) {
+        rejections.incrementAndGet(reason.ordinal());
+    }
+
+    /**
+     * Gets the number of commands rejected for a reason.
+     * @param reason the reason
+     * @return the count
+     */
+    long rejected(Rejection reason) {
+        return rejections.get(reason.ordinal());
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+
+    /**
+     * Prints the latency percentiles of each command type and the rejection counts.
+     * @param out the sink to print to
+     */
+    void print(OutputSink out) {
+        out.println("*Command latency in microseconds: count, p50, p99, p99.9, max.");
+        for (Command.Kind k : TIMED) {
+            LatencyHistogram h = latency[k.ordinal()];
+            out.println(k.token() + " " + h.count() + " " + micros(h.percentile(0.5)) + " "
+                    + micros(h.percentile(0.99)) + " " + micros(h.percentile(0.999)) + " " + micros(h.max()));
+        }
+        out.println("*Rejected commands by reason.");
+        for (Rejection r : REJECTIONS) {
+            out.println(r.name() + " " + rejections.get(r.ordinal()));
+        }
+        out.println("*end of list.");
+    }
+
+    /**
+     * Writes the histograms' percentiles, in nanoseconds, and the rejection counts
+     * to a JSON file, replacing it.
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    void writeJson(Path file) throws IOException {
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("{\n  \"latencyNanos\": {");
+        for (int i = 0; i < TIMED.length; i++) {
+            LatencyHistogram h = latency[TIMED[i].ordinal()];
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    \"").append(TIMED[i].token()).append("\": {\"count\": ").append(h.count())
+                    .append(", \"p50\": ").append(h.percentile(0.5))
+                    .append(", \"p99\": ").append(h.percentile(0.99))
+                    .append(", \"p999\": ").append(h.percentile(0.999))
+                    .append(", \"max\": ").append(h.max()).append('}');
+        }
+        sb.append("\n  },\n  \"rejections\": {");
+        for (int i = 0; i < REJECTIONS.length; i++) {
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    \"").append(REJECTIONS[i].name()).append("\": ").append(rejections.get(i));
+        }
+        sb.append("\n  }\n}\n");
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,20 @@
+package ru.vms;
+
+/**
+ * Output sink that discards everything, for benchmarks and replays.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public class NullSink implements OutputSink {
+    @Override
+    public void println(String line) {
+    }
+
+    @Override
+    public void println(Object o) {
+    }
+
+    @Override
+    public void flush() {
+    }
+}
@@ -0,0 +1,38 @@
+package ru.vms;
+
+/**
+ * Destination for command responses and reports.
+ * Frontend and the report methods write every line through a sink instead of
+ * System.out, so the caller decides how output is buffered and when it is flushed.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public interface OutputSink {
+    /**
+     * Writes one line of output.
+     * @param line the text of the line, without a line separator
+     */
+    void println(String line);
+
+    /**
+     * Writes the string form of an object as one line of output.
+     * @param o the object to print
+     */
+    default void println(Object o) {
+        println(String.valueOf(o));
+    }
+
+    /**
+     * Pushes any buffered output to its destination.
+     */
+    void flush();
+
+    /**
+     * Sets an action to run before buffered output is written out, whether by
+     * flush() or because the buffer filled. A sink that does not buffer may
+     * ignore it.
+     * @param action the action to run
+     */
+    default void beforeWrite(Runnable action) {
+    }
+}
@@ -0,0 +1,113 @@
+package ru.vms;
+
+/**
+ * Open-addressing hash table from license plate to an int slot.
+ * Uses linear probing with backward-shift deletion, so there are no tombstones
+ * and lookups stay short after many removes.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+class PlateIndex {
+    static final int NOT_FOUND = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * Creates an empty index.
+     */
+    PlateIndex() {
+        this.keys = new String[INITIAL_CAPACITY];
+        this.values = new int[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    private static int hash(String plate) {
+        int h = plate.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int probe(String plate) {
+        int mask = keys.length - 1;
+        int i = hash(plate) & mask;
+        while (keys[i] != null && !keys[i].equals(plate)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void rehash() {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int j = probe(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Gets the slot stored for a plate.
+     * @param plate the license plate
+     * @return the slot, or NOT_FOUND if the plate is not indexed
+     */
+    int get(String plate) {
+        int i = probe(plate);
+        return keys[i] == null ? NOT_FOUND : values[i];
+    }
+
+    /**
+     * Stores or replaces the slot for a plate, growing the table at half load.
+     * @param plate the license plate
+     * @param slot the slot to store
+     */
+    void put(String plate, int slot) {
+        int i = probe(plate);
+        if (keys[i] == null) {
+            if (2 * (size + 1) > keys.length) {
+                rehash();
+                i = probe(plate);
+            }
+            keys[i] = plate;
+            size++;
+        }
+        values[i] = slot;
+    }
+
+    /**
+     * Removes a plate and shifts back any entries that probed past it.
+     * @param plate the license plate
+     */
+    void remove(String plate) {
+        int mask = keys.length - 1;
+        int hole = probe(plate);
+        if (keys[hole] == null) return;
+        int i = (hole + 1) & mask;
+        while (keys[i] != null) {
+            int home = hash(keys[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[hole] = null;
+        size--;
+    }
+
+    /**
+     * Gets the number of indexed plates.
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+}
@@ -1,32 +1,148 @@
 package ru.vms;
 
+import java.util.Comparator;
+import java.util.function.Consumer;
+
 /**
- * Holds bookings in a resizable array; prints by vehicle/begin-date or by dept/employee.
- * Enforces in-place sorting; no Java Collections allowed.
+ * Holds bookings as columns of primitive arrays; prints by vehicle/begin-date or
+ * by dept/employee.
+ * Booking i is row i of the columns: its beginning and ending epoch days, the
+ * slot of its vehicle and its employee's ordinal. Rows are packed at the front of
+ * the arrays, which double when full, and a removed row is filled with the last
+ * one. No Booking object is kept: add() takes one apart and find(), get() and the
+ * reports build them when asked, so a large book costs a few ints per booking
+ * instead of several objects.
+ * Each vehicle with bookings has a slot, found through a plate index, with its
+ * Vehicle and an IntervalSet, so availability checks only look at that vehicle's
+ * bookings; each employee has an IntervalSet too, indexed by ordinal, for
+ * conflict checks. Department buckets list their employees in name order for the
+ * department report, which groups the bookings of each employee in PR order.
+ * An ending-date heap gives the next booking due for return, and a hash index on
+ * (plate, ending date) finds the booking of a C or R command in constant time.
+ * A sorted view of the booked plates gives the PR order without sorting.
+ * <p>
+ * Bookings begin within 3 months of today and last at most a week, so every
+ * booking that can still be checked against falls in a window of 128 days from
+ * today. Each booked vehicle also has a bitmap of that window, two longs with one
+ * bit per booked day, so an availability check is a masked AND; checks outside
+ * the window fall back to the vehicle's interval set. The window is moved with
+ * slideWindow() as the clock advances.
+ * No Java Collections allowed.
  * Authors: Reeham Anwar, Simeon Thomas
  */
 public class Reservation {
     private static final int CAPACITY = 4;
-    private static final int NOT_FOUND = -1;
+    /** Number of days covered by the availability bitmaps. */
+    static final int WINDOW_DAYS = 128;
+    private static final int NO_WINDOW = Integer.MIN_VALUE;
+    private static final Employee[] EMPLOYEES = Employee.values();
+    private static final Department[] DEPARTMENTS_BY_NAME =
+            sorted(Department.values(), Comparator.comparing(Department::getDisplayName));
+    private static final Employee[] EMPLOYEES_BY_NAME =
+            sorted(Employee.values(), Comparator.comparing(Employee::name));
 
-    private Booking[] bookings;
+    /**
+     * One department: the ordinals of its employees in employee name order, plus
+     * a running count of its bookings so empty departments are skipped at once.
+     */
+    private static class DeptBucket {
+        final int[] employees;
+        int count;
+
+        DeptBucket(int[] employees) {
+            this.employees = employees;
+        }
+    }
+
+    private int[] begins;
+    private int[] ends;
+    private int[] vehicleOf;
+    private byte[] employeeOf;
     private int size;
 
+    private final PlateIndex vehicleSlots;
+    private Vehicle[] vehicles;
+    private IntervalSet[] byVehicle;
+    private long[] daysLow;
+    private long[] daysHigh;
+    private int vehicleCount;
+    private int windowStart = NO_WINDOW;
+    private final IntervalSet[] byEmployee;
+    private final DeptBucket[] byDept;
+    private final EndingHeap byEnd;
+    private final BookingIndex byKey;
+    private final SortedView<String> bookedPlates;
+
     /**
      * Creates an empty reservation list with the initial capacity.
      */
     public Reservation() {
-        this.bookings = new Booking[CAPACITY];
+        this.begins = new int[CAPACITY];
+        this.ends = new int[CAPACITY];
+        this.vehicleOf = new int[CAPACITY];
+        this.employeeOf = new byte[CAPACITY];
         this.size = 0;
+        this.vehicleSlots = new PlateIndex();
+        this.vehicles = new Vehicle[CAPACITY];
+        this.byVehicle = new IntervalSet[CAPACITY];
+        this.daysLow = new long[CAPACITY];
+        this.daysHigh = new long[CAPACITY];
+        this.vehicleCount = 0;
+        this.byEmployee = new IntervalSet[EMPLOYEES.length];
+        for (int i = 0; i < byEmployee.length; i++) {
+            byEmployee[i] = new IntervalSet();
+        }
+        this.byDept = new DeptBucket[Department.values().length];
+        for (Department d : Department.values()) {
+            int n = 0;
+            for (Employee e : EMPLOYEES_BY_NAME) if (e.getDepartment() == d) n++;
+            int[] employees = new int[n];
+            n = 0;
+            for (Employee e : EMPLOYEES_BY_NAME) if (e.getDepartment() == d) employees[n++] = e.ordinal();
+            byDept[d.ordinal()] = new DeptBucket(employees);
+        }
+        this.byEnd = new EndingHeap();
+        this.byKey = new BookingIndex();
+        this.bookedPlates = new SortedView<>(String::compareTo);
     }
 
-    private int find(Booking b) {
-        for (int i = 0; i < size; i++) {
-            if (bookings[i].equals(b)) {
-                return i;
+    private static <T> T[] sorted(T[] a, Comparator<? super T> order) {
+        for (int i = 1; i < a.length; i++) {
+            T key = a[i];
+            int j = i - 1;
+            while (j >= 0 && order.compare(a[j], key) > 0) {
+                a[j + 1] = a[j];
+                j--;
             }
+            a[j + 1] = key;
         }
-        return NOT_FOUND;
+        return a;
+    }
+
+    /**
+     * Builds the Booking of a row.
+     */
+    private Booking booking(int id) {
+        return new Booking(Date.ofEpochDay(begins[id]), Date.ofEpochDay(ends[id]),
+                EMPLOYEES[employeeOf[id]], vehicles[vehicleOf[id]]);
+    }
+
+    private String plateOf(int id) {
+        return vehicles[vehicleOf[id]].getPlate();
+    }
+
+    /**
+     * Finds the row of a vehicle's booking with the given dates.
+     * @return the row, or -1 if there is none
+     */
+    private int find(String plate, int begin, int end) {
+        int id = byKey.get(plate, end);
+        return id != BookingIndex.NOT_FOUND && begins[id] == begin ? id : -1;
+    }
+
+    private IntervalSet vehicleSet(String plate) {
+        int slot = vehicleSlots.get(plate);
+        return slot == PlateIndex.NOT_FOUND ? null : byVehicle[slot];
     }
 
     public int size() {
@@ -34,125 +150,496 @@ public class Reservation {
     }
 
     private void grow() {
-        Booking[] n = new Booking[bookings.length + CAPACITY];
-        for (int i = 0; i < size; i++) {
-            n[i] = bookings[i];
-        }
-        bookings = n;
+        ensureCapacity(begins.length * 2);
     }
 
     /**
-     * Adds a booking to the list, growing the underlying array as needed.
+     * Makes room for at least the given number of bookings, so a bulk load
+     * does not grow the arrays step by step.
+     * @param n the number of bookings
+     */
+    void ensureCapacity(int n) {
+        if (n <= begins.length) return;
+        int[] b = new int[n];
+        int[] e = new int[n];
+        int[] v = new int[n];
+        byte[] emp = new byte[n];
+        System.arraycopy(begins, 0, b, 0, size);
+        System.arraycopy(ends, 0, e, 0, size);
+        System.arraycopy(vehicleOf, 0, v, 0, size);
+        System.arraycopy(employeeOf, 0, emp, 0, size);
+        begins = b;
+        ends = e;
+        vehicleOf = v;
+        employeeOf = emp;
+    }
+
+    /**
+     * Adds a booking to the list, growing the underlying arrays as needed.
      * @param b the booking to add
      */
     public void add(Booking b) {
-        if (size == bookings.length) grow();
-        bookings[size++] = b;
+        if (size == begins.length) grow();
+        int id = size++;
+        int begin = b.getBegin().toEpochDay();
+        int end = b.getEnd().toEpochDay();
+        Employee emp = b.getEmployee();
+        begins[id] = begin;
+        ends[id] = end;
+        employeeOf[id] = (byte) emp.ordinal();
+        vehicleOf[id] = addToVehicle(b.getVehicle(), begin, end, id);
+        byEmployee[emp.ordinal()].add(begin, end, id);
+        byDept[emp.getDepartment().ordinal()].count++;
+        byEnd.add(end, id);
+        byKey.put(b.getVehicle().getPlate(), end, id);
     }
 
     /**
-     * Removes the given booking if present by overwriting it with the last element.
+     * Removes the booking with the vehicle and dates of the given one, if present,
+     * by overwriting its row with the last one.
      * Does nothing if the booking is not found.
      * @param b the booking to remove
      */
     public void remove(Booking b) {
-        int idx = find(b);
-        if (idx == NOT_FOUND) return;
-        bookings[idx] = bookings[size - 1];
-        bookings[size - 1] = null;
-        size--;
+        String plate = b.getVehicle().getPlate();
+        int id = find(plate, b.getBegin().toEpochDay(), b.getEnd().toEpochDay());
+        if (id < 0) return;
+        int emp = employeeOf[id];
+        removeFromVehicle(vehicleOf[id], begins[id], ends[id], id);
+        byEmployee[emp].remove(begins[id], id);
+        byDept[EMPLOYEES[emp].getDepartment().ordinal()].count--;
+        byEnd.remove(id);
+        byKey.remove(plate, ends[id]);
+        int last = --size;
+        if (id != last) moveRow(last, id);
+    }
+
+    /**
+     * Moves the last row into the hole left by a removed one and renumbers it in
+     * every index.
+     */
+    private void moveRow(int from, int to) {
+        int begin = begins[from];
+        int slot = vehicleOf[from];
+        begins[to] = begin;
+        ends[to] = ends[from];
+        vehicleOf[to] = slot;
+        employeeOf[to] = employeeOf[from];
+        byVehicle[slot].renumber(begin, from, to);
+        byEmployee[employeeOf[from]].renumber(begin, from, to);
+        byEnd.renumber(from, to);
+        byKey.put(vehicles[slot].getPlate(), ends[from], to);
+    }
+
+    /**
+     * Adds a booking to its vehicle's set and bitmap, giving the vehicle a slot
+     * if it has none.
+     * @return the vehicle's slot
+     */
+    private int addToVehicle(Vehicle v, int begin, int end, int id) {
+        String plate = v.getPlate();
+        int slot = vehicleSlots.get(plate);
+        if (slot == PlateIndex.NOT_FOUND) {
+            if (vehicleCount == byVehicle.length) {
+                int cap = byVehicle.length * 2;
+                Vehicle[] vs = new Vehicle[cap];
+                System.arraycopy(vehicles, 0, vs, 0, vehicleCount);
+                vehicles = vs;
+                IntervalSet[] n = new IntervalSet[cap];
+                System.arraycopy(byVehicle, 0, n, 0, vehicleCount);
+                byVehicle = n;
+                long[] lo = new long[cap];
+                System.arraycopy(daysLow, 0, lo, 0, vehicleCount);
+                daysLow = lo;
+                long[] hi = new long[cap];
+                System.arraycopy(daysHigh, 0, hi, 0, vehicleCount);
+                daysHigh = hi;
+            }
+            slot = vehicleCount++;
+            vehicles[slot] = v;
+            byVehicle[slot] = new IntervalSet();
+            daysLow[slot] = 0;
+            daysHigh[slot] = 0;
+            vehicleSlots.put(plate, slot);
+            bookedPlates.add(plate);
+        }
+        byVehicle[slot].add(begin, end, id);
+        mark(slot, begin, end, true);
+        return slot;
+    }
+
+    /**
+     * Removes a booking from its vehicle's set and bitmap; a vehicle left without
+     * bookings gives up its slot to the last one, whose rows are renumbered.
+     */
+    private void removeFromVehicle(int slot, int begin, int end, int id) {
+        IntervalSet set = byVehicle[slot];
+        if (set.remove(begin, id)) mark(slot, begin, end, false);
+        if (!set.isEmpty()) return;
+        String plate = vehicles[slot].getPlate();
+        int lastSlot = --vehicleCount;
+        vehicleSlots.remove(plate);
+        bookedPlates.remove(plate);
+        if (slot != lastSlot) {
+            IntervalSet last = byVehicle[lastSlot];
+            vehicles[slot] = vehicles[lastSlot];
+            byVehicle[slot] = last;
+            daysLow[slot] = daysLow[lastSlot];
+            daysHigh[slot] = daysHigh[lastSlot];
+            vehicleSlots.put(vehicles[slot].getPlate(), slot);
+            for (int i = 0; i < last.size(); i++) vehicleOf[last.idAt(i)] = slot;
+        }
+        vehicles[lastSlot] = null;
+        byVehicle[lastSlot] = null;
+    }
+
+    /**
+     * Gets the bits from..to (inclusive, 0..63) of a word.
+     */
+    private static long bits(int from, int to) {
+        return (-1L >>> (63 - to)) & (-1L << from);
+    }
+
+    /**
+     * Sets or clears the window days of a booking in a vehicle's bitmap.
+     */
+    private void mark(int slot, int begin, int end, boolean booked) {
+        if (windowStart == NO_WINDOW) return;
+        int from = Math.max(begin - windowStart, 0);
+        int to = Math.min(end - windowStart, WINDOW_DAYS - 1);
+        if (from > to) return;
+        long lo = from < 64 ? bits(from, Math.min(to, 63)) : 0;
+        long hi = to >= 64 ? bits(Math.max(from, 64) - 64, to - 64) : 0;
+        if (booked) {
+            daysLow[slot] |= lo;
+            daysHigh[slot] |= hi;
+        } else {
+            daysLow[slot] &= ~lo;
+            daysHigh[slot] &= ~hi;
+        }
+    }
+
+    private void rebuild(int slot) {
+        daysLow[slot] = 0;
+        daysHigh[slot] = 0;
+        IntervalSet set = byVehicle[slot];
+        for (int i = 0; i < set.size(); i++) mark(slot, set.beginAt(i), set.endAt(i), true);
+    }
+
+    /**
+     * Moves the bitmap window to start on the given day. The bitmaps are shifted;
+     * vehicles with a booking past the old window, and every vehicle when the
+     * window moves back or by more than its length, are rebuilt from their
+     * interval sets.
+     * @param today the first day of the window, as an epoch day
+     */
+    void slideWindow(int today) {
+        if (today == windowStart) return;
+        int shift = today - windowStart;
+        int oldEnd = windowStart + WINDOW_DAYS;
+        boolean whole = windowStart == NO_WINDOW || shift < 0 || shift >= WINDOW_DAYS;
+        windowStart = today;
+        for (int slot = 0; slot < vehicleCount; slot++) {
+            IntervalSet set = byVehicle[slot];
+            if (whole || set.endAt(set.size() - 1) >= oldEnd) {
+                rebuild(slot);
+            } else if (shift >= 64) {
+                daysLow[slot] = daysHigh[slot] >>> (shift - 64);
+                daysHigh[slot] = 0;
+            } else {
+                daysLow[slot] = (daysLow[slot] >>> shift) | (daysHigh[slot] << (64 - shift));
+                daysHigh[slot] >>>= shift;
+            }
+        }
+    }
+
+    /**
+     * Gets the first day of the bitmap window.
+     * @return the epoch day, or Integer.MIN_VALUE before the first slideWindow()
+     */
+    int windowStart() {
+        return windowStart;
+    }
+
+    /**
+     * Gets one word of a vehicle's bitmap: bit i of word w is set if the vehicle
+     * is booked on day windowStart() + 64 * w + i.
+     * @param plate the license plate of the vehicle
+     * @param word 0 for the first 64 days of the window, 1 for the rest
+     * @return the word, 0 if the vehicle has no booking
+     */
+    long bookedDays(String plate, int word) {
+        int slot = vehicleSlots.get(plate);
+        if (slot == PlateIndex.NOT_FOUND) return 0;
+        return word == 0 ? daysLow[slot] : daysHigh[slot];
+    }
+
+    /**
+     * Checks whether a vehicle is free for every day of the inclusive range [begin, end].
+     * @param plate the license plate of the vehicle
+     * @param begin the beginning date of the range
+     * @param end the ending date of the range
+     * @return true if none of the vehicle's bookings overlaps the range
+     */
+    public boolean isVehicleAvailable(String plate, Date begin, Date end) {
+        int slot = vehicleSlots.get(plate);
+        if (slot == PlateIndex.NOT_FOUND) return true;
+        int from = begin.toEpochDay() - windowStart;
+        int to = end.toEpochDay() - windowStart;
+        if (windowStart == NO_WINDOW || from < 0 || to >= WINDOW_DAYS) {
+            return !byVehicle[slot].overlaps(begin.toEpochDay(), end.toEpochDay());
+        }
+        long lo = from < 64 ? bits(from, Math.min(to, 63)) : 0;
+        long hi = to >= 64 ? bits(Math.max(from, 64) - 64, to - 64) : 0;
+        return ((daysLow[slot] & lo) | (daysHigh[slot] & hi)) == 0;
+    }
+
+    /**
+     * Checks whether an employee has a booking overlapping the inclusive range [begin, end].
+     * @param emp the employee
+     * @param begin the beginning date of the range
+     * @param end the ending date of the range
+     * @return true if one of the employee's bookings overlaps the range
+     */
+    public boolean hasEmployeeConflict(Employee emp, Date begin, Date end) {
+        return byEmployee[emp.ordinal()].overlaps(begin.toEpochDay(), end.toEpochDay());
+    }
+
+    /**
+     * Checks whether a vehicle has any booking.
+     * @param plate the license plate of the vehicle
+     * @return true if the vehicle has at least one booking
+     */
+    public boolean hasVehicleBookings(String plate) {
+        return vehicleSlots.get(plate) != PlateIndex.NOT_FOUND;
+    }
+
+    /**
+     * Finds the booking of a vehicle with the given beginning and ending dates.
+     * @param plate the license plate of the vehicle
+     * @param begin the beginning date
+     * @param end the ending date
+     * @return the booking, or null if there is none
+     */
+    public Booking find(String plate, Date begin, Date end) {
+        int id = find(plate, begin.toEpochDay(), end.toEpochDay());
+        return id < 0 ? null : booking(id);
+    }
+
+    /**
+     * Finds the first days a vehicle is free for a booking of the given length.
+     * @param plate the license plate of the vehicle
+     * @param from the earliest first day, as an epoch day
+     * @param days the length of the booking in days, at least 1
+     * @return the first day of the earliest free run, as an epoch day
+     */
+    int firstFreeWindow(String plate, int from, int days) {
+        IntervalSet set = vehicleSet(plate);
+        return set == null ? from : set.firstGap(from, days);
+    }
+
+    /**
+     * Finds the booking of a vehicle with the given ending date.
+     * @param plate the license plate of the vehicle
+     * @param end the ending date
+     * @return the booking, or null if there is none
+     */
+    public Booking findByEnd(String plate, Date end) {
+        int id = byKey.get(plate, end.toEpochDay());
+        return id == BookingIndex.NOT_FOUND ? null : booking(id);
     }
 
     /**
-     * Checks whether the given booking exists in the list.
+     * Gets the earliest ending date among all bookings.
+     * @return the earliest ending date, or null if there is no booking
+     */
+    public Date earliestEnd() {
+        int top = byEnd.peek();
+        return top < 0 ? null : Date.ofEpochDay(ends[top]);
+    }
+
+    /**
+     * Checks whether a booking with the vehicle and dates of the given one exists.
      * @param b the booking to search for
      * @return true if found, false otherwise
      */
-    public boolean contains(Booking b) { return find(b) != NOT_FOUND; }
+    public boolean contains(Booking b) {
+        return find(b.getVehicle().getPlate(), b.getBegin().toEpochDay(), b.getEnd().toEpochDay()) >= 0;
+    }
 
     /**
      * Gets the booking at the given index.
      * @param i the index in the list (0-based, must be &lt; size)
      * @return the booking at the index
      */
-    public Booking get(int i) { return bookings[i]; }
+    public Booking get(int i) { return booking(i); }
+
+    /**
+     * Passes every booking to the action ordered by license plate, then beginning date.
+     * @param action the action to perform
+     */
+    void forEachByVehicle(Consumer<? super Booking> action) {
+        for (SortedView.Node<String> n = bookedPlates.first(); n != null; n = n.next()) {
+            IntervalSet set = vehicleSet(n.value());
+            for (int i = 0; i < set.size(); i++) action.accept(booking(set.idAt(i)));
+        }
+    }
 
     /**
      * Prints the bookings ordered by license plate, then beginning date.
+     * Walks the sorted plates and each vehicle's interval set, so nothing is sorted.
      * Prints a standard message if there is no booking.
+     * @param out the sink to print to
      */
-    public void printByVehicle() {
+    public void printByVehicle(OutputSink out) {
         if (size == 0) {
-            System.out.println("There is no booking record.");
+            out.println("There is no booking record.");
             return;
         }
-        for (int i = 1; i < size; i++) {
-            Booking key = bookings[i];
-            int j = i - 1;
-            while (j >= 0 && compareByVehicle(bookings[j], key) > 0) {
-                bookings[j + 1] = bookings[j];
-                j--;
+        out.println("*List of reservations ordered by license plate number and beginning date.");
+        for (SortedView.Node<String> n = bookedPlates.first(); n != null; n = n.next()) {
+            printSet(out, vehicleSet(n.value()));
+        }
+        out.println("*end of list.");
+    }
+
+    private void printSet(OutputSink out, IntervalSet set) {
+        for (int i = 0; i < set.size(); i++) out.println(booking(set.idAt(i)));
+    }
+
+    /**
+     * Groups the rows by employee, each group in PR order (plate, then beginning
+     * date), with a counting sort over a walk of the sorted plates.
+     * @param start receives the first index of each employee's group, by ordinal;
+     *              start[e + 1] ends group e. Must have one more slot than there are employees.
+     * @return the grouped rows
+     */
+    private int[] rowsByEmployee(int[] start) {
+        int[] next = new int[EMPLOYEES.length];
+        for (int e = 0; e < EMPLOYEES.length; e++) {
+            start[e + 1] = start[e] + byEmployee[e].size();
+            next[e] = start[e];
+        }
+        int[] rows = new int[size];
+        for (SortedView.Node<String> n = bookedPlates.first(); n != null; n = n.next()) {
+            IntervalSet set = vehicleSet(n.value());
+            for (int i = 0; i < set.size(); i++) {
+                int id = set.idAt(i);
+                rows[next[employeeOf[id]]++] = id;
             }
-            bookings[j + 1] = key;
         }
-        System.out.println("*List of reservations ordered by license plate number and beginning date.");
-        for (int i = 0; i < size; i++) System.out.println(bookings[i]);
-        System.out.println("*end of list.");
+        return rows;
     }
 
     /**
-     * Prints the bookings ordered by department, then by employee.
+     * Prints the bookings ordered by department, then by employee, then by license
+     * plate and beginning date.
+     * Departments come in display-name order and the bookings are grouped by
+     * employee in one pass over the PR order, so the report is O(n) and nothing is sorted.
      * Prints a standard message if there is no booking.
+     * @param out the sink to print to
      */
-    public void printByDept() {
+    public void printByDept(OutputSink out) {
         if (size == 0) {
-            System.out.println("There is no booking record.");
+            out.println("There is no booking record.");
             return;
         }
-        for (int i = 1; i < size; i++) {
-            Booking key = bookings[i];
-            int j = i - 1;
-            while (j >= 0 && compareByDept(bookings[j], key) > 0) {
-                bookings[j + 1] = bookings[j];
-                j--;
+        int[] start = new int[EMPLOYEES.length + 1];
+        int[] rows = rowsByEmployee(start);
+        out.println("*List of reservations ordered by department and employee.");
+        for (Department d : DEPARTMENTS_BY_NAME) {
+            DeptBucket bucket = byDept[d.ordinal()];
+            if (bucket.count == 0) continue;
+            out.println("--" + d.getDisplayName() + "--");
+            for (int e : bucket.employees) {
+                for (int i = start[e]; i < start[e + 1]; i++) out.println(booking(rows[i]));
             }
-            bookings[j + 1] = key;
         }
-        System.out.println("*List of reservations ordered by department and employee.");
-
-        printDeptSection(Department.BUSINESS_ANALYTICS_AND_INFORMATION_TECHNOLOGY);
-        printDeptSection(Department.COMPUTER_SCIENCE);
-        printDeptSection(Department.ELECTRICAL_ENGINEERING);
-        printDeptSection(Department.INFORMATION_TECHNOLOGY_AND_INFORMATICS);
-        printDeptSection(Department.MATHEMATICS);
+        out.println("*end of list.");
+    }
 
-        System.out.println("*end of list.");
+    private static int size(Reservation[] parts) {
+        int total = 0;
+        for (Reservation r : parts) total += r.size;
+        return total;
     }
 
-    private void printDeptSection(Department dept) {
-        boolean printedHeader = false;
-        for (int i = 0; i < size; i++) {
-            Booking b = bookings[i];
-            if (b.getEmployee().getDepartment() == dept) {
-                if (!printedHeader) {
-                    System.out.println("--" + dept.getDisplayName() + "--");
-                    printedHeader = true;
-                }
-                System.out.println(b);
+    /**
+     * Prints several reservation lists with disjoint plates as one, in the order
+     * of printByVehicle(), by merging their sorted plates.
+     * @param out the sink to print to
+     * @param parts the reservation lists
+     */
+    static void printByVehicle(OutputSink out, Reservation[] parts) {
+        if (parts.length == 1) {
+            parts[0].printByVehicle(out);
+            return;
+        }
+        if (size(parts) == 0) {
+            out.println("There is no booking record.");
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        SortedView.Node<String>[] at = (SortedView.Node<String>[]) new SortedView.Node<?>[parts.length];
+        for (int i = 0; i < parts.length; i++) at[i] = parts[i].bookedPlates.first();
+        out.println("*List of reservations ordered by license plate number and beginning date.");
+        while (true) {
+            int min = -1;
+            for (int i = 0; i < at.length; i++) {
+                if (at[i] != null && (min < 0 || at[i].value().compareTo(at[min].value()) < 0)) min = i;
             }
+            if (min < 0) break;
+            parts[min].printSet(out, parts[min].vehicleSet(at[min].value()));
+            at[min] = at[min].next();
         }
+        out.println("*end of list.");
     }
 
-    private int compareByVehicle(Booking a, Booking b) {
-        int plateCmp = a.getVehicle().getPlate().compareTo(b.getVehicle().getPlate());
-        if (plateCmp != 0) return plateCmp;
-        return a.getBegin().compareTo(b.getBegin());
-    }
-
-    private int compareByDept(Booking a, Booking b) {
-        int deptCmp = a.getEmployee().getDepartment().getDisplayName()
-                .compareTo(b.getEmployee().getDepartment().getDisplayName());
-        if (deptCmp != 0) return deptCmp;
-        return a.getEmployee().name().compareTo(b.getEmployee().name());
+    /**
+     * Prints several reservation lists with disjoint plates as one, in the order
+     * of printByDept(). Each part groups its bookings by employee in PR order, and
+     * the plates are disjoint, so merging an employee's groups by plate gives the
+     * order of one list.
+     * @param out the sink to print to
+     * @param parts the reservation lists
+     */
+    static void printByDept(OutputSink out, Reservation[] parts) {
+        if (parts.length == 1) {
+            parts[0].printByDept(out);
+            return;
+        }
+        if (size(parts) == 0) {
+            out.println("There is no booking record.");
+            return;
+        }
+        int[][] start = new int[parts.length][EMPLOYEES.length + 1];
+        int[][] rows = new int[parts.length][];
+        for (int i = 0; i < parts.length; i++) rows[i] = parts[i].rowsByEmployee(start[i]);
+        int[] at = new int[parts.length];
+        out.println("*List of reservations ordered by department and employee.");
+        for (Department d : DEPARTMENTS_BY_NAME) {
+            int count = 0;
+            for (Reservation r : parts) count += r.byDept[d.ordinal()].count;
+            if (count == 0) continue;
+            out.println("--" + d.getDisplayName() + "--");
+            for (int e : parts[0].byDept[d.ordinal()].employees) {
+                for (int i = 0; i < at.length; i++) at[i] = start[i][e];
+                while (true) {
+                    int min = -1;
+                    String first = null;
+                    for (int i = 0; i < parts.length; i++) {
+                        if (at[i] == start[i][e + 1]) continue;
+                        String plate = parts[i].plateOf(rows[i][at[i]]);
+                        if (min < 0 || plate.compareTo(first) < 0) {
+                            min = i;
+                            first = plate;
+                        }
+                    }
+                    if (min < 0) break;
+                    out.println(parts[min].booking(rows[min][at[min]++]));
+                }
+            }
+        }
+        out.println("*end of list.");
     }
 }
@@ -1,16 +1,141 @@
 package ru.vms;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Calendar;
 import java.util.Scanner;
 import java.util.StringTokenizer;
 
 /**
- * Driver class used by graders to launch the program
+ * Driver class used by graders to launch the program.
+ * Optional arguments: --today m/d/yyyy pins the date used for validation;
+ * --batch file runs the commands of a file instead of standard input;
+ * --log file replays a command log at startup and logs every change to it;
+ * --snapshot file loads a snapshot at startup and writes one on Q;
+ * --snapshot-every n also writes one whenever the log holds n records;
+ * --serve port|socket serves clients over a loopback TCP port or a Unix
+ * domain socket instead of reading standard input;
+ * --shards n runs a --batch file on n worker threads (see ShardedEngine);
+ * --pipeline parses and validates a --batch file on threads of their own;
+ * --metrics file writes the latency and rejection metrics (see PM) as JSON on exit.
  * @author Simeon Thomas
  * @author Reeham Anwar
  */
 public class RunProject1 {
     public static void main(String[] argos) {
-        new Frontend().run();
+        DayClock clock = DayClock.system();
+        String batch = null;
+        String logFile = null;
+        String snapshotFile = null;
+        long snapshotEvery = 0;
+        String serve = null;
+        int shards = 0;
+        boolean pipeline = false;
+        String metricsFile = null;
+        for (int i = 0; i < argos.length; i++) {
+            if (argos[i].equals("--today") && i + 1 < argos.length) {
+                clock = DayClock.fixed(Date.fromString(argos[++i]));
+            } else if (argos[i].equals("--batch") && i + 1 < argos.length) {
+                batch = argos[++i];
+            } else if (argos[i].equals("--log") && i + 1 < argos.length) {
+                logFile = argos[++i];
+            } else if (argos[i].equals("--snapshot") && i + 1 < argos.length) {
+                snapshotFile = argos[++i];
+            } else if (argos[i].equals("--snapshot-every") && i + 1 < argos.length) {
+                snapshotEvery = Long.parseLong(argos[++i]);
+            } else if (argos[i].equals("--serve") && i + 1 < argos.length) {
+                serve = argos[++i];
+            } else if (argos[i].equals("--shards") && i + 1 < argos.length) {
+                shards = Integer.parseInt(argos[++i]);
+            } else if (argos[i].equals("--pipeline")) {
+                pipeline = true;
+            } else if (argos[i].equals("--metrics") && i + 1 < argos.length) {
+                metricsFile = argos[++i];
+            }
+        }
+        if (shards > 0) {
+            if (batch == null || logFile != null || snapshotFile != null || serve != null) {
+                System.err.println("--shards only runs a --batch file, without --log, --snapshot or --serve");
+                return;
+            }
+            ShardedEngine engine = new ShardedEngine(clock, WriterSink.stdout(), shards);
+            if (metricsFile != null) dumpOnExit(engine.metrics(), metricsFile);
+            try {
+                engine.runBatch(Paths.get(batch));
+            } catch (IOException e) {
+                System.err.println(batch + " - cannot read the command file: " + e.getMessage());
+            }
+            return;
+        }
+        Frontend frontend = new Frontend(clock);
+        if (metricsFile != null) dumpOnExit(frontend.metrics(), metricsFile);
+        if (snapshotFile != null) {
+            try {
+                frontend.useSnapshot(Paths.get(snapshotFile), snapshotEvery);
+            } catch (IOException e) {
+                System.err.println(snapshotFile + " - cannot load the snapshot: " + e.getMessage());
+                return;
+            }
+        }
+        CommandLog log = null;
+        if (logFile != null) {
+            try {
+                log = CommandLog.open(Paths.get(logFile));
+                frontend.recover(log);
+            } catch (IOException e) {
+                System.err.println(logFile + " - cannot recover from the command log: " + e.getMessage());
+                return;
+            }
+        }
+        try {
+            if (serve != null) {
+                serve(frontend, serve, log);
+            } else if (batch == null) {
+                frontend.run();
+            } else {
+                try {
+                    if (pipeline) frontend.runPipelined(Paths.get(batch));
+                    else frontend.runBatch(Paths.get(batch));
+                } catch (IOException e) {
+                    System.err.println(batch + " - cannot read the command file: " + e.getMessage());
+                }
+            }
+        } finally {
+            if (log != null) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    System.err.println(logFile + " - cannot write the command log: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void dumpOnExit(Metrics metrics, String file) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                metrics.writeJson(Paths.get(file));
+            } catch (IOException e) {
+                System.err.println(file + " - cannot write the metrics: " + e.getMessage());
+            }
+        }));
+    }
+
+    private static void serve(Frontend frontend, String address, CommandLog log) {
+        try (CommandServer server = CommandServer.open(frontend, address)) {
+            if (log != null) {
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        log.commit();
+                    } catch (IOException e) {
+                        System.err.println("cannot write the command log: " + e.getMessage());
+                    }
+                }));
+            }
+            System.err.println("Vehicle Management System is serving on " + server.address());
+            server.serve();
+        } catch (IOException e) {
+            System.err.println(address + " - cannot serve: " + e.getMessage());
+        }
     }
 }
@@ -0,0 +1,403 @@
+package ru.vms;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs a command file on several worker threads, each owning the vehicles and
+ * bookings of the plates that hash to it, with the same output as a run on one
+ * Frontend.
+ * <p>
+ * The reading thread splits the file into lines and routes each command by the
+ * hash of its plate, so all commands on one vehicle run on one shard in input
+ * order. Most of a command only reads and changes its own shard, but the
+ * employee conflict check and the return order depend on the bookings of every
+ * shard. Bookings, cancels and returns therefore take a ticket in input order and
+ * pass a turnstile: each waits for its turn before it checks those rules or
+ * changes a booking, so every booking change happens in input order and every
+ * cross-shard check sees exactly the bookings a sequential run would. The
+ * shards' employee sets and ending-date heaps together serve as the shared
+ * employee calendar and return queue, and the trip archive is shared outright.
+ * <p>
+ * Every command leaves its response in a ring slot for its sequence number, and
+ * the reading thread prints the slots in order. A report first waits until every
+ * earlier command has been printed, so no shard is running, and then merges the
+ * shards' sorted views. F and BF, which do not name a plate, run the same way;
+ * BF then books on the shard of the vehicle it found.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public class ShardedEngine {
+    private static final int QUEUE_SIZE = 1024;
+    private static final int RING_SIZE = 1 << 14;
+    private static final int NO_TICKET = -1;
+    /** Ring entry of a command that printed nothing. */
+    private static final String SILENT = new String("");
+    /** Queue entry that stops a shard. */
+    private static final Task STOP = new Task(-1, NO_TICKET, null, 0, 0);
+
+    /** One routed command: its input line, sequence number and turnstile ticket. */
+    private static class Task {
+        final long seq;
+        final long ticket;
+        final CharSequence chars;
+        final int from;
+        final int to;
+
+        Task(long seq, long ticket, CharSequence chars, int from, int to) {
+            this.seq = seq;
+            this.ticket = ticket;
+            this.chars = chars;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Output sink of a shard: holds the response of the command being run.
+     */
+    private static class ReplySink implements OutputSink {
+        private static final String NEWLINE = System.lineSeparator();
+
+        private String reply;
+
+        @Override
+        public void println(String line) {
+            reply = reply == null ? line : reply + NEWLINE + line;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        String take() {
+            String r = reply;
+            reply = null;
+            return r;
+        }
+    }
+
+    /**
+     * A worker thread with its part of the fleet and the reservations.
+     */
+    final class Shard implements Runnable {
+        private final Fleet fleet = new Fleet();
+        private final Reservation reservations = new Reservation();
+        private final ReplySink sink = new ReplySink();
+        private final Frontend frontend;
+        private final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        private Task current;
+        private boolean entered;
+
+        Shard() {
+            this.frontend = new Frontend(this, fleet, reservations, trips, clock, sink, metrics);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Task t = queue.take();
+                    if (t == STOP) return;
+                    current = t;
+                    entered = false;
+                    Object reply;
+                    try {
+                        frontend.processLine(t.chars, t.from, t.to);
+                        reply = sink.take();
+                        if (reply == null) reply = SILENT;
+                    } catch (RuntimeException e) {
+                        sink.take();
+                        reply = e;
+                    } finally {
+                        if (t.ticket != NO_TICKET) {
+                            enterTurn();
+                            turn = t.ticket + 1;
+                        }
+                    }
+                    replies.set(slot(t.seq), reply);
+                }
+            } catch (InterruptedException e) {
+                // stopped by runBatch() after a failure
+            }
+        }
+
+        /**
+         * Waits until the current command holds the turnstile; it keeps it until
+         * it has finished.
+         */
+        void enterTurn() {
+            if (entered || current.ticket == NO_TICKET) return;
+            for (int spins = 0; turn != current.ticket; spins++) BackOff.pause(spins);
+            entered = true;
+        }
+
+        /**
+         * Checks an employee's bookings on every shard; called holding the turnstile.
+         */
+        boolean hasEmployeeConflict(Employee emp, Date begin, Date end) {
+            for (Shard s : shards) {
+                if (s.reservations.hasEmployeeConflict(emp, begin, end)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Gets the earliest ending date on every shard; called holding the turnstile.
+         */
+        Date earliestEnd() {
+            Date earliest = null;
+            for (Shard s : shards) {
+                Date d = s.reservations.earliestEnd();
+                if (d != null && (earliest == null || d.compareTo(earliest) < 0)) earliest = d;
+            }
+            return earliest;
+        }
+    }
+
+    private final DayClock clock;
+    private final OutputSink out;
+    private final TripList trips = new TripList();
+    private final Metrics metrics = new Metrics();
+    private final Shard[] shards;
+    private final Fleet[] fleets;
+    private final Reservation[] reservationParts;
+    private final AtomicReferenceArray<Object> replies = new AtomicReferenceArray<>(RING_SIZE);
+    /** The command the reading thread parses the commands it runs itself into. */
+    private final Command reportCommand = new Command();
+    private volatile long turn;
+    private long nextSeq;
+    private long nextTicket;
+    private long printed;
+
+    /**
+     * Creates an engine with the given number of shards.
+     * @param clock the clock that defines today
+     * @param out the sink that receives every response and report
+     * @param shards the number of worker threads, at least 1
+     */
+    public ShardedEngine(DayClock clock, OutputSink out, int shards) {
+        if (shards < 1) throw new IllegalArgumentException(shards + " - need at least one shard");
+        this.clock = clock;
+        this.out = out;
+        this.shards = new Shard[shards];
+        this.fleets = new Fleet[shards];
+        this.reservationParts = new Reservation[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard();
+            fleets[i] = this.shards[i].fleet;
+            reservationParts[i] = this.shards[i].reservations;
+        }
+    }
+
+    /**
+     * Gets the latency histograms and rejection counters of all shards.
+     * @return the metrics
+     */
+    Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Runs the commands of a file, printing exactly what Frontend.runBatch()
+     * prints for the same file and clock.
+     * @param file the command file
+     * @throws IOException if the file cannot be read
+     */
+    public void runBatch(Path file) throws IOException {
+        Thread[] threads = new Thread[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            threads[i] = new Thread(shards[i], "vms-shard-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        out.println("Vehicle Management System is running.");
+        try (MappedCommandFile in = MappedCommandFile.open(file)) {
+            while (in.nextLine()) {
+                if (!dispatch(in.chars(), in.lineStart(), in.lineEnd())) break;
+                printReady();
+            }
+            printUpTo(nextSeq);
+        } finally {
+            for (int i = 0; i < shards.length; i++) {
+                if (!shards[i].queue.offer(STOP)) threads[i].interrupt();
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Routes one line to its shard, or runs it here if it is a report, F, BF or Q.
+     * @return false if the line terminated the system
+     */
+    private boolean dispatch(CharSequence chars, int from, int to) {
+        while (from < to && chars.charAt(from) <= ' ') from++;
+        while (to > from && chars.charAt(to - 1) <= ' ') to--;
+        if (from == to) return true;
+        if (chars.charAt(from) == 'Q') {
+            printUpTo(nextSeq);
+            out.println("Vehicle Management System is terminated.");
+            return false;
+        }
+        int cmdEnd = tokenEnd(chars, from, to);
+        int length = cmdEnd - from;
+        char first = chars.charAt(from);
+        if ((length == 2 && (first == 'P' || first == 'B') || length == 1 && first == 'F')
+                && runHere(chars, from, to)) {
+            return true;
+        }
+        int plateToken = 0;
+        boolean ticket = false;
+        if (length == 1) {
+            switch (chars.charAt(from)) {
+                case 'A':
+                case 'D':
+                case 'W': plateToken = 1; break;
+                case 'B':
+                case 'C': plateToken = 3; ticket = true; break;
+                case 'R': plateToken = 2; ticket = true; break;
+                default:
+            }
+        }
+        int shard = plateToken == 0 ? 0 : shardOf(chars, cmdEnd, to, plateToken);
+        long seq = nextSeq++;
+        if (seq - printed >= RING_SIZE) printUpTo(seq - RING_SIZE + 1);
+        Task t = new Task(seq, ticket ? nextTicket++ : NO_TICKET, chars, from, to);
+        try {
+            shards[shard].queue.put(t);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while dispatching", e);
+        }
+        return true;
+    }
+
+    /**
+     * Runs a report, or a search or booking by make, on this thread once every
+     * earlier command has run, so every shard is idle. PB first moves every
+     * shard's availability bitmaps to today, so they can be ANDed together.
+     * @return false if the command runs on a shard
+     */
+    private boolean runHere(CharSequence chars, int from, int to) {
+        long started = System.nanoTime();
+        Command c = reportCommand;
+        c.parse(chars, from, to);
+        if (!runsHere(c.kind)) return false;
+        c.started = started;
+        c.validate(clock);
+        printUpTo(nextSeq);
+        if (c.settled) {
+            if (c.failure != null) throw c.failure;
+            metrics.reject(c.rejection);
+            out.println(c.reply);
+        } else {
+            switch (c.kind) {
+                case PRINT_FLEET: Fleet.printByMake(out, fleets); break;
+                case PRINT_RESERVATIONS: Reservation.printByVehicle(out, reservationParts); break;
+                case PRINT_DEPT: Reservation.printByDept(out, reservationParts); break;
+                case PRINT_TRIPS: trips.print(out); break;
+                case PRINT_METRICS: metrics.print(out); break;
+                case PRINT_UTILIZATION:
+                    Utilization.printBookedOn(out, fleets, reservationParts, c.begin, c.make);
+                    break;
+                case FIND: Utilization.printAvailable(out, fleets, reservationParts, c); break;
+                case BOOK_FIRST: out.println(bookFirst(c)); break;
+                default:
+                    for (Reservation r : reservationParts) r.slideWindow(clock.today());
+                    Utilization.printBookedOut(out, fleets, reservationParts, c.make);
+            }
+        }
+        metrics.record(c.kind, System.nanoTime() - c.started);
+        return true;
+    }
+
+    /**
+     * Books the first free vehicle of a make on the shard that owns it. The
+     * shards are idle and every earlier booking change has been made, so the
+     * checks see what a sequential run would.
+     */
+    private String bookFirst(Command c) {
+        Vehicle v = Utilization.firstAvailable(fleets, reservationParts, c.begin, c.end, c.make);
+        if (v == null) {
+            metrics.reject(Metrics.Rejection.NOT_AVAILABLE);
+            return Utilization.noneAvailable(c);
+        }
+        if (shards[0].hasEmployeeConflict(c.employee, c.begin, c.end)) {
+            metrics.reject(Metrics.Rejection.EMPLOYEE_CONFLICT);
+            return c.employee.name() + " - has an existing booking conflicting with the beginning date " + c.args[0];
+        }
+        Shard owner = null;
+        for (Shard s : shards) {
+            if (s.fleet.getByPlate(v.getPlate()) == v) owner = s;
+        }
+        return owner.frontend.applyBook(c.begin, c.end, v.getPlate(), c.employee) + " booked.";
+    }
+
+    private static boolean runsHere(Command.Kind kind) {
+        switch (kind) {
+            case PRINT_FLEET:
+            case PRINT_RESERVATIONS:
+            case PRINT_DEPT:
+            case PRINT_TRIPS:
+            case PRINT_METRICS:
+            case PRINT_UTILIZATION:
+            case PRINT_BOOKED_OUT:
+            case FIND:
+            case BOOK_FIRST: return true;
+            default: return false;
+        }
+    }
+
+    private static int tokenEnd(CharSequence chars, int from, int to) {
+        while (from < to && !CommandTokenizer.isDelimiter(chars.charAt(from))) from++;
+        return from;
+    }
+
+    /**
+     * Picks the shard of the n-th token after pos, hashing its characters; a line
+     * without that token goes to shard 0, where it fails as it would on one Frontend.
+     */
+    private int shardOf(CharSequence chars, int pos, int to, int n) {
+        int start = pos;
+        for (int k = 0; k < n; k++) {
+            start = pos;
+            while (start < to && CommandTokenizer.isDelimiter(chars.charAt(start))) start++;
+            pos = tokenEnd(chars, start, to);
+        }
+        if (start == pos) return 0;
+        int h = 0;
+        for (int i = start; i < pos; i++) h = 31 * h + chars.charAt(i);
+        h *= 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & 0x7FFFFFFF) % shards.length;
+    }
+
+    /** Prints the responses that are ready, in order, without waiting. */
+    private void printReady() {
+        while (printed < nextSeq && print(replies.get(slot(printed)))) printed++;
+    }
+
+    /** Prints the responses of every command before seq, waiting for them. */
+    private void printUpTo(long seq) {
+        while (printed < seq) {
+            Object r;
+            for (int spins = 0; (r = replies.get(slot(printed))) == null; spins++) BackOff.pause(spins);
+            print(r);
+            printed++;
+        }
+    }
+
+    private boolean print(Object reply) {
+        if (reply == null) return false;
+        replies.set(slot(printed), null);
+        if (reply instanceof RuntimeException) throw (RuntimeException) reply;
+        if (reply != SILENT) out.println((String) reply);
+        return true;
+    }
+
+    private static int slot(long seq) {
+        return (int) (seq & (RING_SIZE - 1));
+    }
+}
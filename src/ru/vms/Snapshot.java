@@ -0,0 +1,258 @@
+package ru.vms;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary image of the fleet, the reservations and the trip archive, so
+ * startup time depends on the size of the state and not on the length of the
+ * command history.
+ * <p>
+ * After the header (magic, version, epoch and the four table sizes) come a
+ * dictionary of plates, a table of vehicles that refer to the dictionary, and
+ * the bookings and trips, which refer to the vehicle table. Dates are packed
+ * yyyymmdd ints, and makes and employees are ordinals. Vehicles are written in
+ * report order and bookings in plate and beginning date order, so loading
+ * appends to the sorted views and interval sets instead of searching them.
+ * <p>
+ * The vehicle table also holds vehicles that were deleted after a trip, since
+ * the trip still refers to them. A snapshot is written to a temporary file and
+ * renamed over the old one, so a crash leaves either the old or the new snapshot.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public class Snapshot {
+    private static final int MAGIC = 0x564D5353;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int CAPACITY = 16;
+
+    private String[] plates = new String[CAPACITY];
+    private int plateCount;
+    private final PlateIndex plateIds = new PlateIndex();
+    private Vehicle[] vehicles = new Vehicle[CAPACITY];
+    private int[] vehiclePlates = new int[CAPACITY];
+    private boolean[] inFleet = new boolean[CAPACITY];
+    private int vehicleCount;
+    private final PlateIndex fleetIds = new PlateIndex();
+    private final PlateIndex otherIds = new PlateIndex();
+    private int[] tripVehicles = new int[CAPACITY];
+    private int tripCount;
+
+    private FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long written;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Writes a snapshot of the given state, replacing any snapshot in the file.
+     * @param file the path of the snapshot
+     * @param epoch the epoch of the snapshot; a log with this epoch holds the changes made after it
+     * @param fleet the fleet
+     * @param reservations the reservations
+     * @param trips the trip archive
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(Path file, long epoch, Fleet fleet, Reservation reservations,
+                             TripList trips) throws IOException {
+        Snapshot s = new Snapshot();
+        fleet.forEachByMake(s::addFleetVehicle);
+        trips.forEach(s::addTripVehicle);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            s.channel = ch;
+            s.written = HEADER_SIZE;
+            s.writeTables(reservations, trips);
+            ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+            h.putInt(MAGIC).putInt(VERSION).putLong(epoch)
+                    .putInt(s.plateCount).putInt(s.vehicleCount)
+                    .putInt(reservations.size()).putInt(s.tripCount).flip();
+            long at = 0;
+            while (h.hasRemaining()) at += ch.write(h, at);
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private int plateId(String plate) {
+        int id = plateIds.get(plate);
+        if (id != PlateIndex.NOT_FOUND) return id;
+        if (plateCount == plates.length) {
+            String[] n = new String[plates.length * 2];
+            System.arraycopy(plates, 0, n, 0, plateCount);
+            plates = n;
+        }
+        plates[plateCount] = plate;
+        plateIds.put(plate, plateCount);
+        return plateCount++;
+    }
+
+    private int addVehicle(Vehicle v, boolean fleetVehicle) {
+        if (vehicleCount == vehicles.length) {
+            int cap = vehicles.length * 2;
+            Vehicle[] n = new Vehicle[cap];
+            System.arraycopy(vehicles, 0, n, 0, vehicleCount);
+            vehicles = n;
+            int[] p = new int[cap];
+            System.arraycopy(vehiclePlates, 0, p, 0, vehicleCount);
+            vehiclePlates = p;
+            boolean[] f = new boolean[cap];
+            System.arraycopy(inFleet, 0, f, 0, vehicleCount);
+            inFleet = f;
+        }
+        vehicles[vehicleCount] = v;
+        vehiclePlates[vehicleCount] = plateId(v.getPlate());
+        inFleet[vehicleCount] = fleetVehicle;
+        return vehicleCount++;
+    }
+
+    private void addFleetVehicle(Vehicle v) {
+        fleetIds.put(v.getPlate(), addVehicle(v, true));
+    }
+
+    private void addTripVehicle(Trip t) {
+        Vehicle v = t.getBooking().getVehicle();
+        int id = fleetIds.get(v.getPlate());
+        if (id == PlateIndex.NOT_FOUND || vehicles[id] != v) {
+            id = otherIds.get(v.getPlate());
+            if (id == PlateIndex.NOT_FOUND || vehicles[id] != v) {
+                id = addVehicle(v, false);
+                otherIds.put(v.getPlate(), id);
+            }
+        }
+        if (tripCount == tripVehicles.length) {
+            int[] n = new int[tripVehicles.length * 2];
+            System.arraycopy(tripVehicles, 0, n, 0, tripCount);
+            tripVehicles = n;
+        }
+        tripVehicles[tripCount++] = id;
+    }
+
+    private void writeTables(Reservation reservations, TripList trips) throws IOException {
+        for (int i = 0; i < plateCount; i++) {
+            byte[] p = plates[i].getBytes(StandardCharsets.UTF_8);
+            room(2 + p.length);
+            buffer.putShort((short) p.length).put(p);
+        }
+        for (int i = 0; i < vehicleCount; i++) {
+            Vehicle v = vehicles[i];
+            room(14);
+            buffer.putInt(vehiclePlates[i]).putInt(v.getObtained().toPacked())
+                    .put((byte) v.getMake().ordinal()).putInt(v.getMileage())
+                    .put((byte) (inFleet[i] ? 1 : 0));
+        }
+        reservations.forEachByVehicle(b -> {
+            room(13);
+            putBooking(b, fleetIds.get(b.getVehicle().getPlate()));
+        });
+        int[] next = {0};
+        trips.forEach(t -> {
+            room(21);
+            putBooking(t.getBooking(), tripVehicles[next[0]++]);
+            buffer.putInt(t.getBeginMileage()).putInt(t.getEndMileage());
+        });
+        drain();
+    }
+
+    private void putBooking(Booking b, int vehicle) {
+        buffer.putInt(vehicle).putInt(b.getBegin().toPacked()).putInt(b.getEnd().toPacked())
+                .put((byte) b.getEmployee().ordinal());
+    }
+
+    /**
+     * Writes out the buffer if fewer than n bytes are free in it.
+     */
+    private void room(int n) {
+        if (buffer.remaining() >= n) return;
+        try {
+            drain();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) written += channel.write(buffer, written);
+        buffer.clear();
+    }
+
+    /**
+     * Loads a snapshot into an empty fleet, reservation list and trip archive.
+     * The file is memory-mapped and decoded in one pass.
+     * @param file the path of the snapshot
+     * @param fleet the fleet to fill
+     * @param reservations the reservations to fill
+     * @param trips the trip archive to fill
+     * @return the epoch of the snapshot
+     * @throws IOException if the file cannot be read or is not a whole snapshot
+     */
+    public static long load(Path file, Fleet fleet, Reservation reservations, TripList trips)
+            throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " - snapshot larger than 2GB");
+            }
+            ByteBuffer data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC || data.getInt() != VERSION) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            long epoch = data.getLong();
+            int plateCount = data.getInt();
+            int vehicleCount = data.getInt();
+            int bookingCount = data.getInt();
+            int tripCount = data.getInt();
+
+            String[] plates = new String[plateCount];
+            byte[] bytes = new byte[256];
+            for (int i = 0; i < plateCount; i++) {
+                int len = data.getShort() & 0xFFFF;
+                if (len > bytes.length) bytes = new byte[len];
+                data.get(bytes, 0, len);
+                plates[i] = new String(bytes, 0, len, StandardCharsets.UTF_8);
+            }
+            Make[] makes = Make.values();
+            Vehicle[] vehicles = new Vehicle[vehicleCount];
+            fleet.ensureCapacity(vehicleCount);
+            for (int i = 0; i < vehicleCount; i++) {
+                String plate = plates[data.getInt()];
+                Date obtained = Date.ofPacked(data.getInt());
+                Make make = makes[data.get()];
+                vehicles[i] = new Vehicle(plate, obtained, make, data.getInt());
+                if (data.get() != 0) fleet.add(vehicles[i]);
+            }
+            Employee[] employees = Employee.values();
+            reservations.ensureCapacity(bookingCount);
+            for (int i = 0; i < bookingCount; i++) {
+                reservations.add(getBooking(data, vehicles, employees));
+            }
+            for (int i = 0; i < tripCount; i++) {
+                Booking b = getBooking(data, vehicles, employees);
+                int beginMileage = data.getInt();
+                trips.add(new Trip(b, beginMileage, data.getInt()));
+            }
+            return epoch;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException(file + " - snapshot is truncated or corrupt", e);
+        }
+    }
+
+    private static Booking getBooking(ByteBuffer data, Vehicle[] vehicles, Employee[] employees) {
+        Vehicle v = vehicles[data.getInt()];
+        Date begin = Date.ofPacked(data.getInt());
+        Date end = Date.ofPacked(data.getInt());
+        return new Booking(begin, end, employees[data.get()], v);
+    }
+}
@@ -0,0 +1,157 @@
+package ru.vms;
+
+import java.util.Comparator;
+
+/**
+ * Ordered set kept as a skip list, used for report views that must stay sorted
+ * while elements come and go. Insert and delete are O(log n) expected, and a
+ * report is a walk along the bottom level with no sorting. The last node of each
+ * level is tracked, so adding elements in ascending order appends in O(1)
+ * expected without searching.
+ * Elements must be distinct under the comparator.
+ * @param <T> the element type
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+class SortedView<T> {
+    private static final int MAX_LEVEL = 32;
+
+    /**
+     * A skip list node; walk a view with first() and next().
+     * @param <T> the element type
+     */
+    static class Node<T> {
+        private final T value;
+        private final Node<T>[] next;
+
+        @SuppressWarnings("unchecked")
+        Node(T value, int levels) {
+            this.value = value;
+            this.next = (Node<T>[]) new Node<?>[levels];
+        }
+
+        /**
+         * Gets the element held by this node.
+         * @return the element
+         */
+        T value() {
+            return value;
+        }
+
+        /**
+         * Gets the node of the next element in order.
+         * @return the next node, or null at the end of the view
+         */
+        Node<T> next() {
+            return next[0];
+        }
+    }
+
+    private final Comparator<? super T> order;
+    private final Node<T> head;
+    private final Node<T>[] update;
+    private final Node<T>[] tail;
+    private int levels;
+    private int size;
+    private int seed;
+
+    /**
+     * Creates an empty view.
+     * @param order the order of the elements
+     */
+    @SuppressWarnings("unchecked")
+    SortedView(Comparator<? super T> order) {
+        this.order = order;
+        this.head = new Node<>(null, MAX_LEVEL);
+        this.update = (Node<T>[]) new Node<?>[MAX_LEVEL];
+        this.tail = (Node<T>[]) new Node<?>[MAX_LEVEL];
+        for (int i = 0; i < MAX_LEVEL; i++) tail[i] = head;
+        this.levels = 1;
+        this.seed = 0x2545F491;
+    }
+
+    private int randomLevel() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return Math.min(Integer.numberOfTrailingZeros(seed | (1 << (MAX_LEVEL - 1))) / 2 + 1, MAX_LEVEL);
+    }
+
+    private Node<T> findPredecessors(T value) {
+        Node<T> x = head;
+        for (int i = levels - 1; i >= 0; i--) {
+            while (x.next[i] != null && order.compare(x.next[i].value, value) < 0) {
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        return x.next[0];
+    }
+
+    /**
+     * Inserts an element; does nothing if an equal element is present.
+     * @param value the element to insert
+     */
+    void add(T value) {
+        if (size > 0 && order.compare(tail[0].value, value) < 0) {
+            System.arraycopy(tail, 0, update, 0, levels);
+        } else {
+            Node<T> found = findPredecessors(value);
+            if (found != null && order.compare(found.value, value) == 0) return;
+        }
+        int lvl = randomLevel();
+        if (lvl > levels) {
+            for (int i = levels; i < lvl; i++) update[i] = head;
+            levels = lvl;
+        }
+        Node<T> n = new Node<>(value, lvl);
+        for (int i = 0; i < lvl; i++) {
+            n.next[i] = update[i].next[i];
+            update[i].next[i] = n;
+            if (n.next[i] == null) tail[i] = n;
+        }
+        size++;
+    }
+
+    /**
+     * Removes the element equal to the given one, if present.
+     * @param value the element to remove
+     */
+    void remove(T value) {
+        Node<T> found = findPredecessors(value);
+        if (found == null || order.compare(found.value, value) != 0) return;
+        for (int i = 0; i < levels && update[i].next[i] == found; i++) {
+            update[i].next[i] = found.next[i];
+            if (tail[i] == found) tail[i] = update[i];
+        }
+        while (levels > 1 && head.next[levels - 1] == null) levels--;
+        size--;
+    }
+
+    /**
+     * Finds the greatest element less than or equal to the given one.
+     * @param value the element to search for
+     * @return the element, or null if every element is greater
+     */
+    T floor(T value) {
+        Node<T> found = findPredecessors(value);
+        if (found != null && order.compare(found.value, value) == 0) return found.value;
+        return update[0] == head ? null : update[0].value;
+    }
+
+    /**
+     * Gets the node of the smallest element.
+     * @return the first node, or null if the view is empty
+     */
+    Node<T> first() {
+        return head.next[0];
+    }
+
+    /**
+     * Gets the number of elements.
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+}
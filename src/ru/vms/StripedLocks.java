@@ -0,0 +1,71 @@
+package ru.vms;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Locks that let commands on different vehicles run at the same time.
+ * <p>
+ * A command that checks and then changes the bookings of one vehicle holds that
+ * plate's stripe lock from the check to the change, and a booking also holds
+ * its employee's lock, so nothing it checked can change underneath it. The
+ * fleet, reservation and trip structures themselves are shared, so lookups take
+ * the state read lock, which many commands hold at once, and changes take the
+ * write lock for the few microseconds the change needs. Checks that depend on
+ * every booking, such as the return order, are made under the write lock.
+ * <p>
+ * Locks are always taken in the order plate, employee, state.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+class StripedLocks {
+    private static final int STRIPES = 64;
+
+    private final ReentrantLock[] plates = new ReentrantLock[STRIPES];
+    private final ReentrantLock[] employees = new ReentrantLock[Employee.values().length];
+    private final ReentrantReadWriteLock state = new ReentrantReadWriteLock();
+
+    /**
+     * Creates the locks.
+     */
+    StripedLocks() {
+        for (int i = 0; i < plates.length; i++) plates[i] = new ReentrantLock();
+        for (int i = 0; i < employees.length; i++) employees[i] = new ReentrantLock();
+    }
+
+    /**
+     * Gets the stripe lock guarding a plate; plates may share a stripe.
+     * @param plate the license plate
+     * @return the lock
+     */
+    Lock plate(String plate) {
+        int h = plate.hashCode() * 0x9E3779B9;
+        return plates[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Gets the lock guarding an employee's bookings.
+     * @param emp the employee
+     * @return the lock
+     */
+    Lock employee(Employee emp) {
+        return employees[emp.ordinal()];
+    }
+
+    /**
+     * Gets the shared lock for reading the state.
+     * @return the read lock
+     */
+    Lock read() {
+        return state.readLock();
+    }
+
+    /**
+     * Gets the exclusive lock for changing the state.
+     * @return the write lock
+     */
+    Lock write() {
+        return state.writeLock();
+    }
+}
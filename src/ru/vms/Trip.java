@@ -30,6 +30,22 @@ public class Trip {
         return booking;
     }
 
+    /**
+     * Gets the mileage at the start of the trip.
+     * @return the beginning mileage
+     */
+    public int getBeginMileage() {
+        return beginMileage;
+    }
+
+    /**
+     * Gets the mileage at the end of the trip.
+     * @return the ending mileage
+     */
+    public int getEndMileage() {
+        return endMileage;
+    }
+
     /**
      * Returns true if two trips have the same booking details, false otherwise.
      * @param obj the object to compare to
@@ -42,6 +58,15 @@ public class Trip {
         return this.booking.equals(t.booking);
     }
 
+    /**
+     * Returns a hash code consistent with equals.
+     * @return the hash code of the booking
+     */
+    @Override
+    public int hashCode() {
+        return booking.hashCode();
+    }
+
     /**
      * Returns string including dates and mileage usage.
      * @return the string representation of this trip
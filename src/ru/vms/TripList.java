@@ -1,7 +1,14 @@
 package ru.vms;
 
+import java.util.function.Consumer;
+
 /**
- * Circular linked list of trips; prints ordered by ending date.
+ * Circular linked list of trips, kept ordered by ending date as trips are added.
+ * Returns are processed earliest ending date first, so most trips are appended
+ * at the tail. Each ending date also remembers the last node of its run in the
+ * list, kept in a sorted view, so a trip that arrives out of order is linked in
+ * right after the run of the latest date on or before its own, without walking
+ * the list; trips with equal ending dates stay in arrival order.
  * @author Simeon Thomas
  * @author Reeham Anwar
  */
@@ -11,47 +18,85 @@ public class TripList {
         Node next;
         Node(Trip t) { this.data = t; }
     }
+
+    /** The trips ending on one date: the last of them in the list. */
+    private static class Run {
+        final Date end;
+        Node last;
+        Run(Date end, Node last) { this.end = end; this.last = last; }
+    }
+
     private Node last;
+    private final SortedView<Run> runs = new SortedView<>((a, b) -> a.end.compareTo(b.end));
+    private Run lastRun;
 
     /**
-     * Adds a completed trip to the circular linked list.
+     * Adds a completed trip to the circular linked list in ending date order.
      * @param t the trip to add
      */
     public void add(Trip t) {
         Node n = new Node(t);
+        Date end = t.getBooking().getEnd();
         if (last == null) {
             last = n;
             last.next = last;
-        } else {
+            lastRun = new Run(end, n);
+            runs.add(lastRun);
+            return;
+        }
+        int cmp = lastRun.end.compareTo(end);
+        if (cmp <= 0) {
             n.next = last.next;
             last.next = n;
             last = n;
+            if (cmp == 0) {
+                lastRun.last = n;
+            } else {
+                lastRun = new Run(end, n);
+                runs.add(lastRun);
+            }
+            return;
+        }
+        Run probe = new Run(end, null);
+        Run before = runs.floor(probe);
+        Node p = before == null ? last : before.last;
+        n.next = p.next;
+        p.next = n;
+        if (before != null && before.end.equals(end)) {
+            before.last = n;
+        } else {
+            probe.last = n;
+            runs.add(probe);
+        }
+    }
+
+    /**
+     * Passes every trip to the action in ending date order.
+     * @param action the action to perform
+     */
+    void forEach(Consumer<? super Trip> action) {
+        if (last == null) return;
+        for (Node p = last.next; ; p = p.next) {
+            action.accept(p.data);
+            if (p == last) break;
         }
     }
 
     /**
      * Prints all completed trips ordered by the booking end date.
      * If there are no trips, prints the required message.
+     * @param out the sink to print to
      */
-    public void print() {
+    public void print(OutputSink out) {
         if (last == null) {
-            System.out.println("There is no archived trips.");
+            out.println("There is no archived trips.");
             return;
         }
-        int count = 0;
-        for (Node p = last.next; ; p = p.next) { count++; if (p == last) break; }
-        Trip[] arr = new Trip[count];
-        int i = 0; for (Node p = last.next; ; p = p.next) { arr[i++] = p.data; if (p == last) break; }
-        for (int k = 1; k < arr.length; k++) {
-            Trip key = arr[k];
-            int j = k - 1;
-            while (j >= 0 && arr[j].getBooking().getEnd().compareTo(key.getBooking().getEnd()) > 0) {
-                arr[j + 1] = arr[j]; j--;
-            }
-            arr[j + 1] = key;
+        out.println("*List of completed trips ordered by ending date.");
+        for (Node p = last.next; ; p = p.next) {
+            out.println(p.data);
+            if (p == last) break;
         }
-        System.out.println("*List of completed trips ordered by ending date.");
-        for (Trip t : arr) System.out.println(t);
-        System.out.println("*end of list.");
+        out.println("*end of list.");
     }
 }
@@ -0,0 +1,189 @@
+package ru.vms;
+
+import java.util.Locale;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * The fleet-wide queries over the availability of vehicles: the utilization
+ * reports PU and PB, over the availability bitmaps of Reservation, and the
+ * search for free vehicles of a make behind F and BF, over the per-make views of
+ * Fleet. They take a fleet and its reservations as index-aligned parts, the
+ * bookings of the vehicles of fleets[i] being in parts[i], so a single Frontend
+ * and the shards of a ShardedEngine give the same answers.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+final class Utilization {
+    private static final Make[] MAKES = Make.values();
+
+    private Utilization() {
+    }
+
+    /**
+     * Passes every vehicle, or every vehicle of a make, with its part's
+     * reservations to the action.
+     */
+    private static void forEach(Fleet[] fleets, Reservation[] parts, Make make,
+                                BiConsumer<Vehicle, Reservation> action) {
+        for (int i = 0; i < fleets.length; i++) {
+            Reservation r = parts[i];
+            if (make == null) {
+                fleets[i].forEachByMake(v -> action.accept(v, r));
+            } else {
+                for (SortedView.Node<Vehicle> n = fleets[i].firstOfMake(make); n != null; n = n.next()) {
+                    action.accept(n.value(), r);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints how many vehicles of each make are booked on a day, out of the
+     * vehicles of that make in the fleet, and the total over all makes.
+     * @param out the sink to print to
+     * @param fleets the parts of the fleet
+     * @param parts the reservations of each part of the fleet
+     * @param day the day
+     * @param make the only make to count, or null for every make
+     */
+    static void printBookedOn(OutputSink out, Fleet[] fleets, Reservation[] parts, Date day, Make make) {
+        int[] vehicles = new int[MAKES.length];
+        int[] booked = new int[MAKES.length];
+        forEach(fleets, parts, make, (v, r) -> {
+            int m = v.getMake().ordinal();
+            vehicles[m]++;
+            if (!r.isVehicleAvailable(v.getPlate(), day, day)) booked[m]++;
+        });
+        int total = 0;
+        int totalBooked = 0;
+        for (int m = 0; m < MAKES.length; m++) {
+            total += vehicles[m];
+            totalBooked += booked[m];
+        }
+        if (total == 0) {
+            out.println("There is no vehicle in the fleet.");
+            return;
+        }
+        out.println("*Vehicles booked on " + day + ", by make.");
+        for (int m = 0; m < MAKES.length; m++) {
+            if (vehicles[m] > 0) out.println(line(MAKES[m].name(), booked[m], vehicles[m]));
+        }
+        if (make == null) out.println(line("ALL", totalBooked, total));
+        out.println("*end of list.");
+    }
+
+    private static String line(String label, int booked, int of) {
+        return label + " " + booked + " of " + of + " (" + String.format(Locale.ROOT, "%.1f", 100.0 * booked / of) + "%)";
+    }
+
+    /**
+     * Prints the days of the bitmap window on which every vehicle, or every
+     * vehicle of a make, is booked: the AND of their bitmaps. Every part's window
+     * must start on the same day.
+     * @param out the sink to print to
+     * @param fleets the parts of the fleet
+     * @param parts the reservations of each part of the fleet
+     * @param make the only make to consider, or null for every make
+     */
+    static void printBookedOut(OutputSink out, Fleet[] fleets, Reservation[] parts, Make make) {
+        // days[0] and days[1] are the AND of the two bitmap words, days[2] the vehicle count
+        long[] days = {-1L, -1L, 0};
+        forEach(fleets, parts, make, (v, r) -> {
+            days[0] &= r.bookedDays(v.getPlate(), 0);
+            days[1] &= r.bookedDays(v.getPlate(), 1);
+            days[2]++;
+        });
+        if (days[2] == 0) {
+            out.println("There is no vehicle in the fleet.");
+            return;
+        }
+        if ((days[0] | days[1]) == 0) {
+            out.println("There is no fully booked day.");
+            return;
+        }
+        int start = parts[0].windowStart();
+        out.println("*Days on which every " + (make == null ? "vehicle" : make.name()) + " is booked.");
+        for (int w = 0; w < 2; w++) {
+            for (long bits = days[w]; bits != 0; bits &= bits - 1) {
+                out.println(Date.ofEpochDay(start + 64 * w + Long.numberOfTrailingZeros(bits)));
+            }
+        }
+        out.println("*end of list.");
+    }
+
+    /**
+     * Walks the vehicles of a make that are free for a date range, in report
+     * order (date obtained, then plate), merging the parts' per-make views.
+     * @param fleets the parts of the fleet
+     * @param parts the reservations of each part of the fleet
+     * @param begin the first day of the range
+     * @param end the last day of the range
+     * @param make the make
+     * @param limit the most vehicles to pass on, or 0 for no limit
+     * @param action the action to perform on each free vehicle
+     */
+    private static void forEachAvailable(Fleet[] fleets, Reservation[] parts, Date begin, Date end,
+                                         Make make, int limit, Consumer<Vehicle> action) {
+        @SuppressWarnings("unchecked")
+        SortedView.Node<Vehicle>[] at = (SortedView.Node<Vehicle>[]) new SortedView.Node<?>[fleets.length];
+        for (int i = 0; i < fleets.length; i++) at[i] = fleets[i].firstOfMake(make);
+        int found = 0;
+        while (limit == 0 || found < limit) {
+            int min = -1;
+            for (int i = 0; i < at.length; i++) {
+                if (at[i] != null && (min < 0 || Fleet.compareForReport(at[i].value(), at[min].value()) < 0)) min = i;
+            }
+            if (min < 0) return;
+            Vehicle v = at[min].value();
+            at[min] = at[min].next();
+            if (parts[min].isVehicleAvailable(v.getPlate(), begin, end)) {
+                action.accept(v);
+                found++;
+            }
+        }
+    }
+
+    /**
+     * Prints the vehicles of a make that are free for a date range, in report order.
+     * @param out the sink to print to
+     * @param fleets the parts of the fleet
+     * @param parts the reservations of each part of the fleet
+     * @param c an F command: its begin, end, make and limit, and the dates as typed
+     */
+    static void printAvailable(OutputSink out, Fleet[] fleets, Reservation[] parts, Command c) {
+        String range = c.args[0] + " ~ " + c.args[1];
+        boolean[] listed = {false};
+        forEachAvailable(fleets, parts, c.begin, c.end, c.make, c.limit, v -> {
+            if (!listed[0]) out.println("*Vehicles of " + c.make.name() + " available for " + range + ".");
+            listed[0] = true;
+            out.println(v);
+        });
+        if (listed[0]) out.println("*end of list.");
+        else out.println(noneAvailable(c));
+    }
+
+    /**
+     * Gets the reply to an F or BF command that finds no free vehicle.
+     * @param c the command
+     * @return the reply
+     */
+    static String noneAvailable(Command c) {
+        return "There is no " + c.make.name() + " available for " + c.args[0] + " ~ " + c.args[1] + ".";
+    }
+
+    /**
+     * Finds the first vehicle of a make, in report order, that is free for a date range.
+     * @param fleets the parts of the fleet
+     * @param parts the reservations of each part of the fleet
+     * @param begin the first day of the range
+     * @param end the last day of the range
+     * @param make the make
+     * @return the vehicle, or null if no vehicle is free
+     */
+    static Vehicle firstAvailable(Fleet[] fleets, Reservation[] parts, Date begin, Date end, Make make) {
+        Vehicle[] first = {null};
+        forEachAvailable(fleets, parts, begin, end, make, 1, v -> first[0] = v);
+        return first[0];
+    }
+}
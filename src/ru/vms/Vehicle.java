@@ -79,6 +79,15 @@ public class Vehicle implements Comparable<Vehicle> {
         return this.plate.equals(v.plate);
     }
 
+    /**
+     * Gets a hash code consistent with equals(): the plate's.
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        return plate.hashCode();
+    }
+
     /**
      * Text form: plate:MAKE:mm/dd/yyyy [mileage:####]
      * @return the string representation
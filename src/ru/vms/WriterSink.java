@@ -0,0 +1,73 @@
+package ru.vms;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Output sink that collects lines in a large buffer and only writes them out
+ * when the buffer fills or flush() is called, with no lock or flush per line.
+ * A line that would overflow the buffer flushes it first, so the buffer is never
+ * written out behind the back of the beforeWrite() action.
+ * @author Simeon Thomas
+ * @author Reeham Anwar
+ */
+public class WriterSink implements OutputSink {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final Writer out;
+    private Runnable beforeWrite = () -> { };
+    private int pending;
+
+    /**
+     * Creates a sink that buffers lines in front of the given writer.
+     * @param out the writer to send output to
+     */
+    public WriterSink(Writer out) {
+        this.out = new BufferedWriter(out, BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a sink on the standard output file descriptor, bypassing System.out.
+     * @return the sink
+     */
+    public static WriterSink stdout() {
+        return new WriterSink(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out),
+                Charset.defaultCharset()));
+    }
+
+    @Override
+    public void println(String line) {
+        int n = line.length() + NEWLINE.length();
+        if (pending + n > BUFFER_SIZE) flush();
+        try {
+            out.write(line);
+            out.write(NEWLINE);
+            pending += n;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        beforeWrite.run();
+        try {
+            out.flush();
+            pending = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void beforeWrite(Runnable action) {
+        this.beforeWrite = action;
+    }
+}